@@ -0,0 +1,272 @@
+package me.nikosgram.oglofus.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Sends parameterised statements to the database in JDBC batches.
+ * <p>
+ * Statements are added in order; a batch is sent when it reaches the batch size or
+ * when the next statement has a different SQL, so the order is kept. In transaction
+ * mode everything is committed by {@link #execute()} and rolled back on failure.
+ * A batch borrows one connection and must be used from one thread. A transaction
+ * never runs on the shared connection, which the other threads keep using: in
+ * transaction mode the batch takes a dedicated connection instead.
+ */
+public class DatabaseBatch
+{
+    private final DatabaseConnector connector;
+    private final Connection        connection;
+    private final int               size;
+    private final boolean           transaction;
+    private final boolean           owned;
+    private final boolean           autoCommit;
+    private final long              started    = System.nanoTime();
+    private       PreparedStatement statement  = null;
+    private       String            sql        = null;
+    private       int               queued     = 0;
+    private       int               count      = 0;
+    private       int               updated    = 0;
+    private       long              finished   = 0L;
+    private       boolean           closed     = false;
+
+    protected DatabaseBatch( DatabaseConnector connector, int size, boolean transaction )
+    {
+        this(
+                connector,
+                transaction ? connector.openDedicatedConnection() : connector.borrowConnection(),
+                size,
+                transaction,
+                true
+        );
+    }
+
+    /**
+     * A batch on a connection the caller owns, it isn't released when the batch closes.
+     *
+     * @throws IllegalStateException if a transaction is asked on the shared connection
+     */
+    protected DatabaseBatch( DatabaseConnector connector, Connection connection, int size, boolean transaction )
+    {
+        this( connector, connection, size, transaction, false );
+    }
+
+    private DatabaseBatch(
+            DatabaseConnector connector,
+            Connection connection,
+            int size,
+            boolean transaction,
+            boolean owned
+    )
+    {
+        if ( transaction && connection != null && connection == connector.getConnection() )
+        {
+            throw new IllegalStateException( "A transactional batch can't run on the shared connection" );
+        }
+        this.connector = connector;
+        this.connection = connection;
+        this.size = Math.max( size, 1 );
+        this.transaction = transaction;
+        this.owned = owned;
+        try
+        {
+            this.autoCommit = this.connection.getAutoCommit();
+            if ( transaction )
+            {
+                this.connection.setAutoCommit( false );
+            }
+        } catch ( SQLException e )
+        {
+            release();
+            throw new RuntimeException( e );
+        }
+    }
+
+    /**
+     * Add a statement to the batch.
+     *
+     * @param sql        the statement's SQL
+     * @param parameters the statement's parameters
+     * @return this batch
+     */
+    public DatabaseBatch add( String sql, Object... parameters )
+    {
+        try
+        {
+            if ( this.statement != null && !this.sql.equals( sql ) )
+            {
+                send();
+                this.statement.close();
+                this.statement = null;
+            }
+            if ( this.statement == null )
+            {
+                this.statement = this.connection.prepareStatement( sql );
+                this.sql = sql;
+            }
+            DatabaseConnector.bind( this.statement, parameters );
+            this.statement.addBatch();
+            if ( ++this.queued >= this.size )
+            {
+                send();
+            }
+        } catch ( SQLException e )
+        {
+            fail( e );
+        }
+        return this;
+    }
+
+    /**
+     * Send what is left, commit in transaction mode and release the connection.
+     *
+     * @return the number of rows the statements changed
+     */
+    public int execute()
+    {
+        try
+        {
+            send();
+            if ( this.transaction )
+            {
+                this.connection.commit();
+            }
+        } catch ( SQLException e )
+        {
+            fail( e );
+        }
+        close();
+        return this.updated;
+    }
+
+    /**
+     * Roll back in transaction mode and release the connection, without sending what is left.
+     */
+    public void cancel()
+    {
+        if ( this.closed )
+        {
+            return;
+        }
+        try
+        {
+            if ( this.transaction )
+            {
+                this.connection.rollback();
+            }
+        } catch ( SQLException ignored )
+        {
+        }
+        close();
+    }
+
+    /**
+     * Get the number of statements sent.
+     *
+     * @return the number of statements
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Get the number of rows the sent statements changed.
+     *
+     * @return the number of rows
+     */
+    public int getUpdated()
+    {
+        return this.updated;
+    }
+
+    /**
+     * Get the milliseconds since the batch began.
+     *
+     * @return the milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        return ( ( this.closed ? this.finished : System.nanoTime() ) - this.started ) / 1000000L;
+    }
+
+    /**
+     * Get the statements sent per second since the batch began.
+     *
+     * @return the rate
+     */
+    public double getRowsPerSecond()
+    {
+        long nanos = ( this.closed ? this.finished : System.nanoTime() ) - this.started;
+        return nanos <= 0L ? 0.0 : this.count * 1000000000.0 / nanos;
+    }
+
+    private void send() throws SQLException
+    {
+        if ( this.queued == 0 )
+        {
+            return;
+        }
+        for ( int result : this.statement.executeBatch() )
+        {
+            if ( result > 0 )
+            {
+                this.updated += result;
+            } else if ( result == Statement.SUCCESS_NO_INFO )
+            {
+                this.updated++;
+            }
+        }
+        this.count += this.queued;
+        this.queued = 0;
+    }
+
+    private void fail( SQLException e )
+    {
+        cancel();
+        throw new RuntimeException( e );
+    }
+
+    private void close()
+    {
+        if ( this.closed )
+        {
+            return;
+        }
+        this.closed = true;
+        this.finished = System.nanoTime();
+        try
+        {
+            if ( this.statement != null )
+            {
+                this.statement.close();
+            }
+            if ( this.transaction )
+            {
+                this.connection.setAutoCommit( this.autoCommit );
+            }
+        } catch ( SQLException ignored )
+        {
+        } finally
+        {
+            release();
+        }
+    }
+
+    private void release()
+    {
+        if ( !this.owned )
+        {
+            return;
+        }
+        if ( this.transaction )
+        {
+            this.connector.closeDedicatedConnection( this.connection );
+        } else
+        {
+            this.connector.releaseConnection( this.connection );
+        }
+    }
+}
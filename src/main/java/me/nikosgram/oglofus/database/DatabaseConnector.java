@@ -8,17 +8,57 @@ import org.apache.commons.codec.StringEncoder;
 import org.apache.commons.codec.net.URLCodec;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.logging.Logger;
 
 public class DatabaseConnector
 {
+    private static final Logger        logger  = Logger.getLogger( DatabaseConnector.class.getName() );
     private static final StringEncoder encoder = new URLCodec();
     private static final StringDecoder decoder = new URLCodec();
 
-    private DatabaseDriver driver = null;
+    private static final Reader< Object >  OBJECT  = new Reader< Object >()
+    {
+        @Override
+        Object read( ResultSet result, String wanted ) throws SQLException
+        {
+            return result.getObject( wanted );
+        }
+    };
+    private static final Reader< String >  STRING  = new Reader< String >()
+    {
+        @Override
+        String read( ResultSet result, String wanted ) throws SQLException
+        {
+            return result.getString( wanted );
+        }
+    };
+    private static final Reader< Integer > INTEGER = new Reader< Integer >()
+    {
+        @Override
+        Integer read( ResultSet result, String wanted ) throws SQLException
+        {
+            return result.getInt( wanted );
+        }
+    };
+    private static final Reader< Boolean > BOOLEAN = new Reader< Boolean >()
+    {
+        @Override
+        Boolean read( ResultSet result, String wanted ) throws SQLException
+        {
+            return result.getBoolean( wanted );
+        }
+    };
+
+    private final Map< Connection, StatementCache > caches = new IdentityHashMap< Connection, StatementCache >();
+
+    private DatabaseDriver driver           = null;
+    private int            batchSize        = 500;
+    private boolean        batchTransaction = true;
 
     public DatabaseConnector( DatabaseDriver driver )
     {
@@ -95,6 +135,17 @@ public class DatabaseConnector
         }
     }
 
+    public static String encodeValue( String s )
+    {
+        try
+        {
+            return encoder.encode( s.trim() );
+        } catch ( EncoderException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
     public static String decodeString( String s )
     {
         s = s.trim();
@@ -116,6 +167,15 @@ public class DatabaseConnector
         return Message;
     }
 
+    /**
+     * Open the driver's connection.
+     * <p>
+     * A {@link PooledDatabaseDriver} has no shared connection, it only fills the pool,
+     * so this returns null; pooled callers take connections with {@link #borrowConnection()}
+     * and give them back with {@link #releaseConnection(Connection)}.
+     *
+     * @return the shared connection, or null if there is none
+     */
     public Connection openConnection()
     {
         if ( driver == null )
@@ -149,6 +209,14 @@ public class DatabaseConnector
         {
             return;
         }
+        synchronized ( caches )
+        {
+            for ( StatementCache cache : caches.values() )
+            {
+                cache.clear();
+            }
+            caches.clear();
+        }
         driver.closeConnection();
     }
 
@@ -520,6 +588,282 @@ public class DatabaseConnector
         return returned;
     }
 
+    public Connection borrowConnection()
+    {
+        if ( driver instanceof PooledDatabaseDriver )
+        {
+            return ( ( PooledDatabaseDriver ) driver ).borrowConnection();
+        }
+        return getConnection();
+    }
+
+    public void releaseConnection( Connection connection )
+    {
+        if ( driver instanceof PooledDatabaseDriver )
+        {
+            ( ( PooledDatabaseDriver ) driver ).releaseConnection( connection );
+        }
+    }
+
+    public boolean isPooled()
+    {
+        return driver instanceof PooledDatabaseDriver;
+    }
+
+    public DatabaseDriver getDriver()
+    {
+        return driver;
+    }
+
+    /**
+     * Get a connection no other caller uses until it's closed with
+     * {@link #closeDedicatedConnection(Connection)}. With a pool it's borrowed,
+     * otherwise a new connection is opened next to the shared one.
+     *
+     * @return the connection
+     */
+    public Connection openDedicatedConnection()
+    {
+        if ( isPooled() )
+        {
+            return borrowConnection();
+        }
+        return driver.newConnection();
+    }
+
+    public void closeDedicatedConnection( Connection connection )
+    {
+        if ( connection == null )
+        {
+            return;
+        }
+        if ( isPooled() )
+        {
+            releaseConnection( connection );
+            return;
+        }
+        try
+        {
+            connection.close();
+        } catch ( SQLException ignored ) {}
+    }
+
+    public StatementCache getStatementCache( Connection connection )
+    {
+        synchronized ( caches )
+        {
+            StatementCache cache = caches.get( connection );
+            if ( cache == null )
+            {
+                Iterator< Connection > iterator = caches.keySet().iterator();
+                while ( iterator.hasNext() )
+                {
+                    try
+                    {
+                        if ( iterator.next().isClosed() )
+                        {
+                            iterator.remove();
+                        }
+                    } catch ( SQLException e )
+                    {
+                        iterator.remove();
+                    }
+                }
+                caches.put( connection, cache = new StatementCache( connection ) );
+            }
+            return cache;
+        }
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isBatchTransaction()
+    {
+        return batchTransaction;
+    }
+
+    public void setBatchTransaction( boolean batchTransaction )
+    {
+        this.batchTransaction = batchTransaction;
+    }
+
+    public DatabaseBatch batch()
+    {
+        return batch( batchSize, batchTransaction );
+    }
+
+    public DatabaseBatch batch( int size, boolean transaction )
+    {
+        return new DatabaseBatch( this, size, transaction );
+    }
+
+    public DatabaseBatch batch( Connection connection, int size, boolean transaction )
+    {
+        return new DatabaseBatch( this, connection, size, transaction );
+    }
+
+    public int executeBatch( String sql, Collection< Object[] > parameters )
+    {
+        DatabaseBatch batch = batch();
+        for ( Object[] values : parameters )
+        {
+            batch.add( sql, values );
+        }
+        return batch.execute();
+    }
+
+    public static void bind( PreparedStatement statement, Object... parameters ) throws SQLException
+    {
+        for ( int i = 0; i < parameters.length; i++ )
+        {
+            statement.setObject( i + 1, parameters[ i ] );
+        }
+    }
+
+    public int executeUpdate( String sql, Object... parameters )
+    {
+        if ( checkConnection() )
+        {
+            Connection connection = borrowConnection();
+            StatementCache cache = getStatementCache( connection );
+            try
+            {
+                synchronized ( cache )
+                {
+                    PreparedStatement statement = cache.prepare( reformMessage( sql ) );
+                    bind( statement, parameters );
+                    return statement.executeUpdate();
+                }
+            } catch ( SQLException e )
+            {
+                throw new RuntimeException( e );
+            } finally
+            {
+                releaseConnection( connection );
+            }
+        }
+        return 0;
+    }
+
+    public void query( String sql, RowHandler handler, Object... parameters )
+    {
+        query( sql, Integer.MAX_VALUE, handler, parameters );
+    }
+
+    private void query( String sql, int limit, RowHandler handler, Object... parameters )
+    {
+        if ( checkConnection() )
+        {
+            Connection connection = borrowConnection();
+            StatementCache cache = getStatementCache( connection );
+            try
+            {
+                synchronized ( cache )
+                {
+                    PreparedStatement statement = cache.prepare( reformMessage( sql ) );
+                    ResultSet result = null;
+                    try
+                    {
+                        bind( statement, parameters );
+                        result = statement.executeQuery();
+                        for ( int i = 0; i < limit && result.next(); i++ )
+                        {
+                            handler.handle( result );
+                        }
+                    } catch ( SQLException e )
+                    {
+                        throw new RuntimeException( e );
+                    } finally
+                    {
+                        if ( result != null )
+                        {
+                            try
+                            {
+                                result.close();
+                            } catch ( SQLException e )
+                            {
+                                throw new RuntimeException( e );
+                            }
+                        }
+                    }
+                }
+            } finally
+            {
+                releaseConnection( connection );
+            }
+        }
+    }
+
+    private < T > T first( String sql, final String wanted, final Reader< T > reader, Object... parameters )
+    {
+        final List< T > returned = new ArrayList< T >( 1 );
+        query(
+                sql, 1, new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        try
+                        {
+                            returned.add( reader.read( result, wanted ) );
+                        } catch ( SQLException ignored ) {}
+                    }
+                }, parameters
+        );
+        return returned.isEmpty() ? null : returned.get( 0 );
+    }
+
+    private < T > List< T > list( String sql, final String wanted, final Reader< T > reader, Object... parameters )
+    {
+        final List< T > returned = new ArrayList< T >();
+        query(
+                sql, new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        try
+                        {
+                            returned.add( reader.read( result, wanted ) );
+                        } catch ( SQLException ignored ) {}
+                    }
+                }, parameters
+        );
+        return returned;
+    }
+
+    private < T > Map< String, T > map(
+            String sql, final String[] wanted, final Reader< T > reader, Object... parameters
+    )
+    {
+        final Map< String, T > returned = new HashMap< String, T >();
+        query(
+                sql, new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        for ( String want : wanted )
+                        {
+                            try
+                            {
+                                returned.put( want, reader.read( result, want ) );
+                            } catch ( SQLException ignored ) {}
+                        }
+                    }
+                }, parameters
+        );
+        return returned;
+    }
+
     public Boolean existsInside( String message, String wanted, String type )
     {
         for ( String s : getStringList( message, wanted ) )
@@ -536,11 +880,13 @@ public class DatabaseConnector
     {
         if ( checkConnection() )
         {
+            Connection connection = borrowConnection();
             try
             {
-                return getConnection().createStatement();
+                return connection.createStatement();
             } catch ( SQLException e )
             {
+                releaseConnection( connection );
                 throw new RuntimeException( e );
             }
         }
@@ -558,7 +904,7 @@ public class DatabaseConnector
             }
             try
             {
-                return getStatement().executeQuery( message );
+                return statement.executeQuery( message );
             } catch ( SQLException e )
             {
                 closeStatement( statement );
@@ -570,117 +916,111 @@ public class DatabaseConnector
 
     public void closeStatement( Statement statement )
     {
+        Connection connection = null;
         try
         {
+            connection = statement.getConnection();
             statement.close();
         } catch ( SQLException e )
         {
             throw new RuntimeException( e );
+        } finally
+        {
+            if ( connection != null )
+            {
+                releaseConnection( connection );
+            }
         }
     }
 
     public void closeResultSet( ResultSet result )
     {
+        Statement statement;
         try
         {
-            closeStatement( result.getStatement() );
-        } catch ( SQLException e )
-        {
-            throw new RuntimeException( e );
-        }
-        try
-        {
+            statement = result.getStatement();
             result.close();
         } catch ( SQLException e )
         {
             throw new RuntimeException( e );
         }
+        closeStatement( statement );
     }
 
     public Boolean exists( String table, String where, String like )
     {
-        Boolean returned = false;
-        if ( checkConnection() )
-        {
-            ResultSet result = getResultSet(
-                    reformMessage(
-                            "SELECT * FROM " +
-                                    table +
-                                    " WHERE " +
-                                    where +
-                                    " LIKE " +
-                                    encodeString( like )
-                    )
-            );
-            try
-            {
-                returned = result.next();
-            } catch ( SQLException e )
-            {
-                throw new RuntimeException( e );
-            } finally { closeResultSet( result ); }
-        }
-        return returned;
+        final boolean[] returned = { false };
+        query(
+                select( table, where ), 1, new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        returned[ 0 ] = true;
+                    }
+                }, encodeValue( like )
+        );
+        return returned[ 0 ];
     }
 
     public Optional< Object > getObject( String table, String where, String like, String wanted )
     {
-        return getObject( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return Optional.fromNullable( first( select( table, where ), wanted, OBJECT, encodeValue( like ) ) );
     }
 
     public Optional< String > getString( String table, String where, String like, String wanted )
     {
-        return getString( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return Optional.fromNullable( first( select( table, where ), wanted, STRING, encodeValue( like ) ) );
     }
 
     public Optional< Integer > getInteger( String table, String where, String like, String wanted )
     {
-        return getInteger( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return Optional.fromNullable( first( select( table, where ), wanted, INTEGER, encodeValue( like ) ) );
     }
 
     public Optional< Boolean > getBoolean( String table, String where, String like, String wanted )
     {
-        return getBoolean( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return Optional.fromNullable( first( select( table, where ), wanted, BOOLEAN, encodeValue( like ) ) );
     }
 
     public Map< String, Object > getObjectMap( String table, String where, String like, String[] wanted )
     {
-        return getObjectMap( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return map( select( table, where ), wanted, OBJECT, encodeValue( like ) );
     }
 
     public Map< String, String > getStringMap( String table, String where, String like, String[] wanted )
     {
-        return getStringMap( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return map( select( table, where ), wanted, STRING, encodeValue( like ) );
     }
 
     public Map< String, Integer > getIntegerMap( String table, String where, String like, String[] wanted )
     {
-        return getIntegerMap( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return map( select( table, where ), wanted, INTEGER, encodeValue( like ) );
     }
 
     public Map< String, Boolean > getBooleanMap( String table, String where, String like, String[] wanted )
     {
-        return getBooleanMap( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return map( select( table, where ), wanted, BOOLEAN, encodeValue( like ) );
     }
 
     public List< Object > getObjectList( String table, String where, String like, String wanted )
     {
-        return getObjectList( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return list( select( table, where ), wanted, OBJECT, encodeValue( like ) );
     }
 
     public List< String > getStringList( String table, String where, String like, String wanted )
     {
-        return getStringList( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return list( select( table, where ), wanted, STRING, encodeValue( like ) );
     }
 
     public List< Integer > getIntegerList( String table, String where, String like, String wanted )
     {
-        return getIntegerList( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return list( select( table, where ), wanted, INTEGER, encodeValue( like ) );
     }
 
     public List< Boolean > getBooleanList( String table, String where, String like, String wanted )
     {
-        return getBooleanList( "SELECT * FROM " + table + " WHERE " + where + " LIKE " + encodeString( like ), wanted );
+        return list( select( table, where ), wanted, BOOLEAN, encodeValue( like ) );
     }
 
     public void createTable( String table, String... values )
@@ -688,51 +1028,186 @@ public class DatabaseConnector
         execute( "CREATE TABLE IF NOT EXISTS " + table + " (" + reformedListToString( values, false ) + ")" );
     }
 
+    public DatabaseDialect getDialect()
+    {
+        return DatabaseDialect.of( name() );
+    }
+
+    /**
+     * Create the table, if it doesn't exist, and every index it misses. A unique
+     * index which the existing rows violate is created as a plain index.
+     *
+     * @param schema the table's schema
+     */
+    public void createTable( TableSchema schema )
+    {
+        if ( !checkConnection() )
+        {
+            return;
+        }
+        execute( schema.create( getDialect() ) );
+        Set< String > existing = getIndexes( schema.getName() );
+        for ( TableSchema.Index index : schema.getIndexes() )
+        {
+            if ( existing.contains( index.getName().toLowerCase() ) )
+            {
+                continue;
+            }
+            try
+            {
+                execute( index.create( index.isUnique() ) );
+            } catch ( RuntimeException e )
+            {
+                if ( !index.isUnique() )
+                {
+                    throw e;
+                }
+                logger.warning(
+                        "The rows of " + schema.getName() + " aren't unique, " + index.getName() +
+                                " is created without uniqueness."
+                );
+                execute( index.create( false ) );
+            }
+        }
+    }
+
+    /**
+     * Get the names of the table's indexes, in lower case.
+     *
+     * @param table the table
+     * @return the names
+     */
+    public Set< String > getIndexes( String table )
+    {
+        Set< String > returned = new HashSet< String >();
+        Connection connection = borrowConnection();
+        try
+        {
+            ResultSet result = connection.getMetaData().getIndexInfo( null, null, table, false, true );
+            try
+            {
+                while ( result.next() )
+                {
+                    String name = result.getString( "INDEX_NAME" );
+                    if ( name != null )
+                    {
+                        returned.add( name.toLowerCase() );
+                    }
+                }
+            } finally
+            {
+                result.close();
+            }
+        } catch ( SQLException e )
+        {
+            throw new RuntimeException( e );
+        } finally
+        {
+            releaseConnection( connection );
+        }
+        return returned;
+    }
+
+    /**
+     * Get the type of a column, as the database reports it.
+     *
+     * @param table  the table
+     * @param column the column
+     * @return the type, absent if the table or the column doesn't exist
+     */
+    public Optional< String > getColumnType( String table, String column )
+    {
+        String returned = null;
+        Connection connection = borrowConnection();
+        try
+        {
+            ResultSet result = connection.getMetaData().getColumns( null, null, table, null );
+            try
+            {
+                while ( result.next() )
+                {
+                    if ( column.equalsIgnoreCase( result.getString( "COLUMN_NAME" ) ) )
+                    {
+                        returned = result.getString( "TYPE_NAME" );
+                        break;
+                    }
+                }
+            } finally
+            {
+                result.close();
+            }
+        } catch ( SQLException e )
+        {
+            throw new RuntimeException( e );
+        } finally
+        {
+            releaseConnection( connection );
+        }
+        return Optional.fromNullable( returned );
+    }
+
     public void insert( String table, Map< String, String > values )
     {
-        execute(
+        List< String > marks = new ArrayList< String >();
+        List< Object > parameters = new ArrayList< Object >();
+        for ( String value : values.values() )
+        {
+            marks.add( "?" );
+            parameters.add( encodeValue( value ) );
+        }
+        executeUpdate(
                 "INSERT INTO " +
                         table +
                         " (" +
                         reformedListToString( values.keySet(), false ) +
                         ") VALUES (" +
-                        reformedListToString( values.values() ) +
-                        ")"
+                        reformedListToString( marks, false ) +
+                        ")", parameters.toArray()
         );
     }
 
     public void update( String table, String where, String like, String change, String to )
     {
-        execute(
-                "UPDATE " +
-                        table +
-                        " SET " +
-                        change +
-                        " = " +
-                        encodeString( to ) +
-                        " WHERE " +
-                        where +
-                        " LIKE " +
-                        encodeString( like )
+        executeUpdate(
+                "UPDATE " + table + " SET " + change + " = ? WHERE " + where + " LIKE ?",
+                encodeValue( to ),
+                encodeValue( like )
         );
     }
 
     public void update( String table, String where, String like, Map< String, String > values )
     {
         List< String > settable = new ArrayList< String >();
+        List< Object > parameters = new ArrayList< Object >();
         for ( String change : values.keySet() )
         {
-            settable.add( change + "=" + encodeString( values.get( change ) ) );
+            settable.add( change + " = ?" );
+            parameters.add( encodeValue( values.get( change ) ) );
         }
-        execute(
+        parameters.add( encodeValue( like ) );
+        executeUpdate(
                 "UPDATE " +
                         table +
                         " SET " +
                         reformedListToString( settable, false ) +
                         " WHERE " +
                         where +
-                        " LIKE " +
-                        encodeString( like )
+                        " LIKE ?", parameters.toArray()
         );
     }
+
+    public void delete( String table, String where, String like )
+    {
+        executeUpdate( "DELETE FROM " + table + " WHERE " + where + " LIKE ?", encodeValue( like ) );
+    }
+
+    private static String select( String table, String where )
+    {
+        return "SELECT * FROM " + table + " WHERE " + where + " LIKE ?";
+    }
+
+    private static abstract class Reader< T >
+    {
+        abstract T read( ResultSet result, String wanted ) throws SQLException;
+    }
 }
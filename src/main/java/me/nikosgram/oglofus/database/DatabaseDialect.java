@@ -0,0 +1,108 @@
+package me.nikosgram.oglofus.database;
+
+/**
+ * The SQL which differs between the supported databases.
+ */
+public enum DatabaseDialect
+{
+    SQLITE
+            {
+                @Override
+                public String autoIncrement( String column )
+                {
+                    return column + " INTEGER PRIMARY KEY AUTOINCREMENT";
+                }
+
+                @Override
+                public String binary( int length )
+                {
+                    return "BLOB";
+                }
+
+                @Override
+                public String dropIndex( String table, String index )
+                {
+                    return "DROP INDEX " + index;
+                }
+
+                @Override
+                public String insertIgnore( String table )
+                {
+                    return "INSERT OR IGNORE INTO " + table;
+                }
+            },
+    MYSQL
+            {
+                @Override
+                public String autoIncrement( String column )
+                {
+                    return column + " INT NOT NULL AUTO_INCREMENT PRIMARY KEY";
+                }
+
+                @Override
+                public String binary( int length )
+                {
+                    return "BINARY(" + length + ")";
+                }
+
+                @Override
+                public String dropIndex( String table, String index )
+                {
+                    return "DROP INDEX " + index + " ON " + table;
+                }
+
+                @Override
+                public String insertIgnore( String table )
+                {
+                    return "INSERT IGNORE INTO " + table;
+                }
+            };
+
+    /**
+     * Get the dialect of a driver, by its name.
+     *
+     * @param name the driver's name
+     * @return the dialect, SQLite for the unknown drivers
+     */
+    public static DatabaseDialect of( String name )
+    {
+        if ( "MySQL".equalsIgnoreCase( name ) )
+        {
+            return MYSQL;
+        }
+        return SQLITE;
+    }
+
+    /**
+     * Get the definition of an auto-increment primary key.
+     *
+     * @param column the column's name
+     * @return the column's definition
+     */
+    public abstract String autoIncrement( String column );
+
+    /**
+     * Get the type of a fixed-length binary column.
+     *
+     * @param length the length in bytes
+     * @return the column's type
+     */
+    public abstract String binary( int length );
+
+    /**
+     * Get the statement which drops an index.
+     *
+     * @param table the index's table
+     * @param index the index's name
+     * @return the statement
+     */
+    public abstract String dropIndex( String table, String index );
+
+    /**
+     * Get the start of an insert which skips the rows violating a unique index.
+     *
+     * @param table the table
+     * @return the start of the statement
+     */
+    public abstract String insertIgnore( String table );
+}
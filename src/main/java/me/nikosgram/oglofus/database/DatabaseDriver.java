@@ -6,6 +6,13 @@ public interface DatabaseDriver
 {
     Connection openConnection();
 
+    /**
+     * Open a connection which the driver doesn't keep, the caller closes it.
+     *
+     * @return the connection
+     */
+    Connection newConnection();
+
     Boolean checkConnection();
 
     void closeConnection();
@@ -24,11 +24,18 @@ public class MySQLDatabaseDriver implements DatabaseDriver
 
     @Override
     public Connection openConnection()
+    {
+        this.connection = newConnection();
+        return this.connection;
+    }
+
+    @Override
+    public Connection newConnection()
     {
         try
         {
             Class.forName( "com.mysql.jdbc.Driver" );
-            this.connection = DriverManager.getConnection(
+            return DriverManager.getConnection(
                     "jdbc:mysql://" +
                             this.hostname +
                             ":" +
@@ -40,7 +47,6 @@ public class MySQLDatabaseDriver implements DatabaseDriver
         {
             throw new RuntimeException( e );
         }
-        return this.connection;
     }
 
     @Override
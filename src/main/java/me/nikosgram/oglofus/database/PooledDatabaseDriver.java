@@ -0,0 +1,407 @@
+package me.nikosgram.oglofus.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of connections opened through an other {@link DatabaseDriver}.
+ * The pool has no single connection, so {@link #getConnection()} returns null;
+ * the connections are taken with {@link #borrowConnection()} and given back
+ * with {@link #releaseConnection(Connection)}.
+ */
+public class PooledDatabaseDriver implements DatabaseDriver
+{
+    private static final Logger logger = Logger.getLogger( PooledDatabaseDriver.class.getName() );
+
+    private final DatabaseDriver                            factory;
+    private final int                                       minSize;
+    private final int                                       maxSize;
+    private final boolean                                   validate;
+    private final long                                      idleTimeout;
+    private final long                                      leakThreshold;
+    private final long                                      borrowTimeout;
+    private final Semaphore                                 permits;
+    private final LinkedBlockingDeque< PooledConnection >   idle     =
+            new LinkedBlockingDeque< PooledConnection >();
+    private final Map< Connection, PooledConnection >       borrowed =
+            new ConcurrentHashMap< Connection, PooledConnection >();
+    private final AtomicInteger                             size     = new AtomicInteger();
+    private final AtomicLong                                borrows  = new AtomicLong();
+    private final AtomicLong                                timeouts = new AtomicLong();
+    private final AtomicLong                                waiting  = new AtomicLong();
+    private final AtomicLong                                longest  = new AtomicLong();
+    private final AtomicLong                                leaks    = new AtomicLong();
+    private final AtomicLong                                evicted  = new AtomicLong();
+    private volatile boolean                                open     = false;
+    private          ScheduledExecutorService               housekeeper;
+    private          long                                   reportedTimeouts;
+
+    /**
+     * @param factory       the driver which opens the physical connections
+     * @param minSize       the connections to keep open even when idle
+     * @param maxSize       the maximum connections
+     * @param validate      validate the connection on every borrow
+     * @param idleTimeout   milliseconds an idle connection stays open, over the min size
+     * @param leakThreshold milliseconds a connection can be borrowed before it's reported as leaked, 0 disables it
+     * @param borrowTimeout milliseconds to wait for a free connection
+     */
+    public PooledDatabaseDriver(
+            DatabaseDriver factory,
+            int minSize,
+            int maxSize,
+            boolean validate,
+            long idleTimeout,
+            long leakThreshold,
+            long borrowTimeout
+    )
+    {
+        this.factory = factory;
+        this.maxSize = Math.max( maxSize, 1 );
+        this.minSize = Math.min( Math.max( minSize, 0 ), this.maxSize );
+        this.validate = validate;
+        this.idleTimeout = idleTimeout;
+        this.leakThreshold = leakThreshold;
+        this.borrowTimeout = borrowTimeout;
+        this.permits = new Semaphore( this.maxSize, true );
+    }
+
+    @Override
+    public synchronized Connection openConnection()
+    {
+        if ( open )
+        {
+            return null;
+        }
+        open = true;
+        fill();
+        housekeeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Oglofus-Pool-Housekeeper" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                }
+        );
+        long period = Math.max( Math.min( idleTimeout, leakThreshold > 0 ? leakThreshold : idleTimeout ) / 2, 1000L );
+        housekeeper.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        housekeeping();
+                    }
+                }, period, period, TimeUnit.MILLISECONDS
+        );
+        return null;
+    }
+
+    @Override
+    public Connection newConnection()
+    {
+        return factory.newConnection();
+    }
+
+    @Override
+    public Boolean checkConnection()
+    {
+        return open;
+    }
+
+    @Override
+    public synchronized void closeConnection()
+    {
+        if ( !open )
+        {
+            return;
+        }
+        open = false;
+        housekeeper.shutdownNow();
+        logger.info( getStatistics() );
+        PooledConnection pooled;
+        while ( ( pooled = idle.pollFirst() ) != null )
+        {
+            discard( pooled );
+        }
+        for ( PooledConnection connection : borrowed.values() )
+        {
+            discard( connection );
+        }
+        borrowed.clear();
+    }
+
+    @Override
+    public Connection getConnection()
+    {
+        return null;
+    }
+
+    @Override
+    public String name()
+    {
+        return factory.name();
+    }
+
+    public Connection borrowConnection()
+    {
+        if ( !open )
+        {
+            throw new IllegalStateException( "The pool is closed" );
+        }
+        long start = System.nanoTime();
+        try
+        {
+            if ( !permits.tryAcquire( borrowTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                timeouts.incrementAndGet();
+                throw new RuntimeException(
+                        new SQLTimeoutException( "No free connection after " + borrowTimeout + "ms" )
+                );
+            }
+        } catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        long wait = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        waiting.addAndGet( wait );
+        long max = longest.get();
+        while ( wait > max && !longest.compareAndSet( max, wait ) )
+        {
+            max = longest.get();
+        }
+
+        try
+        {
+            PooledConnection pooled;
+            while ( ( pooled = idle.pollFirst() ) != null )
+            {
+                if ( !validate || valid( pooled.connection ) )
+                {
+                    break;
+                }
+                discard( pooled );
+            }
+            if ( pooled == null )
+            {
+                pooled = create();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.trace = leakThreshold > 0 ? new Throwable( "Connection borrowed here" ) : null;
+            pooled.reported = false;
+            borrowed.put( pooled.connection, pooled );
+            return pooled.connection;
+        } catch ( RuntimeException e )
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void releaseConnection( Connection connection )
+    {
+        PooledConnection pooled = borrowed.remove( connection );
+        if ( pooled == null )
+        {
+            return;
+        }
+        try
+        {
+            if ( !open || connection.isClosed() )
+            {
+                discard( pooled );
+                return;
+            }
+            if ( !connection.getAutoCommit() )
+            {
+                connection.rollback();
+                connection.setAutoCommit( true );
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst( pooled );
+        } catch ( SQLException e )
+        {
+            discard( pooled );
+        } finally
+        {
+            permits.release();
+        }
+    }
+
+    public int getActiveCount()
+    {
+        return borrowed.size();
+    }
+
+    public int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    public long getBorrowCount()
+    {
+        return borrows.get();
+    }
+
+    public long getTimeoutCount()
+    {
+        return timeouts.get();
+    }
+
+    public double getAverageWaitMillis()
+    {
+        long count = borrows.get();
+        return count == 0 ? 0 : waiting.get() / 1000000D / count;
+    }
+
+    public double getMaxWaitMillis()
+    {
+        return longest.get() / 1000000D;
+    }
+
+    public long getLeakCount()
+    {
+        return leaks.get();
+    }
+
+    public long getEvictedCount()
+    {
+        return evicted.get();
+    }
+
+    /**
+     * Get the counters in one line, for the log and the stats command.
+     *
+     * @return the pool's statistics
+     */
+    public String getStatistics()
+    {
+        return String.format(
+                "%s pool: %d active, %d idle, %d borrows waiting %.2fms on average and %.2fms at most, " +
+                        "%d timeouts, %d leaks, %d evicted.",
+                name(), getActiveCount(), getIdleCount(), getBorrowCount(), getAverageWaitMillis(),
+                getMaxWaitMillis(), getTimeoutCount(), getLeakCount(), getEvictedCount()
+        );
+    }
+
+    private PooledConnection create()
+    {
+        Connection connection = factory.newConnection();
+        if ( connection == null )
+        {
+            throw new RuntimeException( "The " + factory.name() + " driver didn't open a connection" );
+        }
+        size.incrementAndGet();
+        return new PooledConnection( connection );
+    }
+
+    private void discard( PooledConnection pooled )
+    {
+        size.decrementAndGet();
+        try
+        {
+            pooled.connection.close();
+        } catch ( SQLException ignored ) {}
+    }
+
+    private boolean valid( Connection connection )
+    {
+        try
+        {
+            return connection.isValid( 2 );
+        } catch ( SQLException e )
+        {
+            return false;
+        }
+    }
+
+    private void fill()
+    {
+        while ( open && size.get() < minSize )
+        {
+            PooledConnection pooled = create();
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerLast( pooled );
+        }
+    }
+
+    private void housekeeping()
+    {
+        long now = System.currentTimeMillis();
+        Iterator< PooledConnection > iterator = idle.descendingIterator();
+        while ( iterator.hasNext() && size.get() > minSize )
+        {
+            PooledConnection pooled = iterator.next();
+            if ( now - pooled.lastUsed > idleTimeout && idle.remove( pooled ) )
+            {
+                evicted.incrementAndGet();
+                discard( pooled );
+            }
+        }
+        long timedOut = timeouts.get();
+        if ( timedOut > reportedTimeouts )
+        {
+            logger.warning(
+                    ( timedOut - reportedTimeouts ) + " borrows timed out since the last check. " + getStatistics()
+            );
+            reportedTimeouts = timedOut;
+        }
+        if ( leakThreshold > 0 )
+        {
+            for ( PooledConnection pooled : borrowed.values() )
+            {
+                if ( !pooled.reported && now - pooled.borrowedAt > leakThreshold )
+                {
+                    pooled.reported = true;
+                    leaks.incrementAndGet();
+                    logger.log(
+                            Level.WARNING,
+                            "A " + name() + " connection is borrowed for " + ( now - pooled.borrowedAt ) +
+                                    "ms, it may have leaked.",
+                            pooled.trace
+                    );
+                }
+            }
+        }
+        try
+        {
+            fill();
+        } catch ( RuntimeException e )
+        {
+            logger.log( Level.WARNING, "Couldn't refill the " + name() + " pool.", e );
+        }
+    }
+
+    private static class PooledConnection
+    {
+        private final    Connection connection;
+        private volatile long       lastUsed;
+        private volatile long       borrowedAt;
+        private volatile Throwable  trace;
+        private volatile boolean    reported;
+
+        private PooledConnection( Connection connection )
+        {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package me.nikosgram.oglofus.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public interface RowHandler
+{
+    void handle( ResultSet result ) throws SQLException;
+}
@@ -18,6 +18,13 @@ public class SQLiteDatabaseDriver implements DatabaseDriver
 
     @Override
     public Connection openConnection()
+    {
+        this.connection = newConnection();
+        return this.connection;
+    }
+
+    @Override
+    public Connection newConnection()
     {
         try
         {
@@ -45,12 +52,11 @@ public class SQLiteDatabaseDriver implements DatabaseDriver
                 }
             }
 
-            this.connection = DriverManager.getConnection( String.format( "jdbc:sqlite:%s", database ) );
+            return DriverManager.getConnection( String.format( "jdbc:sqlite:%s", database ) );
         } catch ( Exception e )
         {
             throw new RuntimeException( e );
         }
-        return null;
     }
 
     @Override
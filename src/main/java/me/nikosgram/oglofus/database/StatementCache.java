@@ -0,0 +1,85 @@
+package me.nikosgram.oglofus.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StatementCache
+{
+    public static final int DEFAULT_SIZE = 64;
+
+    private final Connection                       connection;
+    private final Map< String, PreparedStatement > statements;
+
+    public StatementCache( Connection connection )
+    {
+        this( connection, DEFAULT_SIZE );
+    }
+
+    public StatementCache( Connection connection, final int size )
+    {
+        this.connection = connection;
+        this.statements = new LinkedHashMap< String, PreparedStatement >( 16, 0.75F, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry< String, PreparedStatement > eldest )
+            {
+                if ( size() > size )
+                {
+                    close( eldest.getValue() );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    public synchronized PreparedStatement prepare( String sql )
+    {
+        PreparedStatement statement = statements.get( sql );
+        try
+        {
+            if ( statement == null || statement.isClosed() )
+            {
+                statement = connection.prepareStatement( sql );
+                statements.put( sql, statement );
+            } else
+            {
+                statement.clearParameters();
+            }
+        } catch ( SQLException e )
+        {
+            throw new RuntimeException( e );
+        }
+        return statement;
+    }
+
+    public synchronized int size()
+    {
+        return statements.size();
+    }
+
+    public synchronized void clear()
+    {
+        for ( PreparedStatement statement : statements.values() )
+        {
+            close( statement );
+        }
+        statements.clear();
+    }
+
+    private static void close( PreparedStatement statement )
+    {
+        try
+        {
+            statement.close();
+        } catch ( SQLException ignored ) {}
+    }
+}
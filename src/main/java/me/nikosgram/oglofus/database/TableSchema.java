@@ -0,0 +1,121 @@
+package me.nikosgram.oglofus.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A table with an auto-increment id, its columns and its indexes, written
+ * once and created with the syntax of each {@link DatabaseDialect}.
+ */
+public class TableSchema
+{
+    private final String         name;
+    private final List< String > columns     = new ArrayList< String >();
+    private final List< String > definitions = new ArrayList< String >();
+    private final List< Index >  indexes     = new ArrayList< Index >();
+
+    public TableSchema( String name )
+    {
+        this.name = name;
+    }
+
+    public TableSchema column( String name, String type )
+    {
+        this.columns.add( name );
+        this.definitions.add( name + " " + type );
+        return this;
+    }
+
+    public TableSchema index( String... columns )
+    {
+        this.indexes.add( new Index( this.name, false, columns ) );
+        return this;
+    }
+
+    public TableSchema unique( String... columns )
+    {
+        this.indexes.add( new Index( this.name, true, columns ) );
+        return this;
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public List< String > getColumns()
+    {
+        return Collections.unmodifiableList( this.columns );
+    }
+
+    public List< Index > getIndexes()
+    {
+        return Collections.unmodifiableList( this.indexes );
+    }
+
+    public String create( DatabaseDialect dialect )
+    {
+        List< String > values = new ArrayList< String >();
+        values.add( dialect.autoIncrement( "id" ) );
+        values.addAll( this.definitions );
+        return "CREATE TABLE IF NOT EXISTS " + this.name + " (" + join( values ) + ")";
+    }
+
+    static String join( List< String > values )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( String value : values )
+        {
+            if ( builder.length() > 0 )
+            {
+                builder.append( ", " );
+            }
+            builder.append( value );
+        }
+        return builder.toString();
+    }
+
+    public static class Index
+    {
+        private final String         name;
+        private final String         table;
+        private final boolean        unique;
+        private final List< String > columns;
+
+        private Index( String table, boolean unique, String... columns )
+        {
+            StringBuilder name = new StringBuilder( table );
+            for ( String column : columns )
+            {
+                name.append( '_' ).append( column );
+            }
+            this.name = name.toString();
+            this.table = table;
+            this.unique = unique;
+            this.columns = Collections.unmodifiableList( Arrays.asList( columns ) );
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public boolean isUnique()
+        {
+            return this.unique;
+        }
+
+        public List< String > getColumns()
+        {
+            return this.columns;
+        }
+
+        public String create( boolean unique )
+        {
+            return "CREATE " + ( unique ? "UNIQUE " : "" ) + "INDEX " + this.name + " ON " + this.table +
+                    " (" + join( this.columns ) + ")";
+        }
+    }
+}
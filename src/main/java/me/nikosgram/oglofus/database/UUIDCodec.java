@@ -0,0 +1,53 @@
+package me.nikosgram.oglofus.database;
+
+import java.util.UUID;
+
+/**
+ * Stores a {@link UUID} as 16 bytes, the most significant long first.
+ */
+public final class UUIDCodec
+{
+    private UUIDCodec()
+    {
+    }
+
+    public static byte[] encode( UUID uuid )
+    {
+        byte[] returned = new byte[ 16 ];
+        write( returned, 0, uuid.getMostSignificantBits() );
+        write( returned, 8, uuid.getLeastSignificantBits() );
+        return returned;
+    }
+
+    public static UUID decode( byte[] bytes )
+    {
+        if ( bytes == null )
+        {
+            return null;
+        }
+        if ( bytes.length != 16 )
+        {
+            throw new IllegalArgumentException( "A binary UUID has 16 bytes, not " + bytes.length );
+        }
+        return new UUID( read( bytes, 0 ), read( bytes, 8 ) );
+    }
+
+    private static void write( byte[] bytes, int offset, long value )
+    {
+        for ( int i = 7; i >= 0; i-- )
+        {
+            bytes[ offset + i ] = ( byte ) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long read( byte[] bytes, int offset )
+    {
+        long value = 0L;
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = ( value << 8 ) | ( bytes[ offset + i ] & 0xFFL );
+        }
+        return value;
+    }
+}
@@ -0,0 +1,432 @@
+package me.nikosgram.oglofus.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues the writes and flushes them in JDBC batches from a background thread.
+ * <p>
+ * A write belongs to a row and a part of it. A write replaces the pending write of
+ * the same part, so only the latest state reaches the database. The statements are
+ * grouped by their SQL into batches, keeping the order of the statements of each row.
+ * Rows depend on each other through the unique keys, a deleted row frees its key for
+ * an other row, so an INSERT never runs before a DELETE or UPDATE of its table that
+ * was queued earlier. The batches are sent through a {@link DatabaseBatch} in one transaction, on a connection of
+ * the queue's own, so it never shares a connection with the server thread.
+ * <p>
+ * If the transaction fails, the rows are written again one transaction each, so
+ * only the rows which fail on their own are retried, and dropped after a few attempts.
+ * <p>
+ * The capacity is a soft limit. Queuing never waits for the database, a backlog
+ * past the capacity only wakes the background thread and logs a warning, at most
+ * once a minute, so a slow database costs memory instead of ticks.
+ */
+public class WriteBehindQueue
+{
+    private static final Logger logger   = Logger.getLogger( WriteBehindQueue.class.getName() );
+    private static final int    ATTEMPTS = 3;
+    private static final int    REPORT   = 1000;
+    private static final long   WARNING  = 60000L;
+
+    private final DatabaseConnector       connector;
+    private final int                     capacity;
+    private final long                    interval;
+    private final Map< String, Mutation > pending  = new LinkedHashMap< String, Mutation >();
+    private final Object                  flushing = new Object();
+    private final Thread                  thread;
+    private volatile boolean              running  = true;
+    private          Connection           connection;
+    private          long                 overflows;
+    private          long                 warned;
+
+    public WriteBehindQueue( DatabaseConnector connector, int capacity, long interval )
+    {
+        this.connector = connector;
+        this.capacity = Math.max( capacity, 1 );
+        this.interval = Math.max( interval, 1L );
+        this.thread = new Thread(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loop();
+                    }
+                }, "Oglofus-Write-Behind"
+        );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    /**
+     * Queue the statements which bring a part of a row to its latest state.
+     * Never waits, see the class's documentation about the capacity.
+     *
+     * @param row        the row's key
+     * @param part       the part's key
+     * @param statements the statements
+     */
+    public void enqueue( String row, String part, Statement... statements )
+    {
+        String key = row + ":" + part;
+        synchronized ( pending )
+        {
+            if ( pending.remove( key ) == null && pending.size() >= capacity )
+            {
+                overflows++;
+                long now = System.currentTimeMillis();
+                if ( now - warned >= WARNING )
+                {
+                    warned = now;
+                    logger.warning(
+                            "The write-behind backlog passed its capacity of " + capacity + " writes, " +
+                                    overflows + " writes went past it so far. The database doesn't keep up."
+                    );
+                }
+            }
+            pending.put( key, new Mutation( row, statements ) );
+            if ( pending.size() >= capacity / 2 )
+            {
+                pending.notifyAll();
+            }
+        }
+        if ( !running )
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Drop the pending writes of a row.
+     *
+     * @param row the row's key
+     */
+    public void cancel( String row )
+    {
+        synchronized ( pending )
+        {
+            Iterator< Mutation > iterator = pending.values().iterator();
+            while ( iterator.hasNext() )
+            {
+                if ( iterator.next().row.equals( row ) )
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public int size()
+    {
+        synchronized ( pending )
+        {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Get the writes which were queued on a backlog past the capacity.
+     *
+     * @return the overflowed writes
+     */
+    public long getOverflowCount()
+    {
+        synchronized ( pending )
+        {
+            return overflows;
+        }
+    }
+
+    /**
+     * Write everything pending on the calling thread.
+     */
+    public void flush()
+    {
+        synchronized ( flushing )
+        {
+            Map< String, Mutation > drained;
+            synchronized ( pending )
+            {
+                if ( pending.isEmpty() )
+                {
+                    return;
+                }
+                drained = new LinkedHashMap< String, Mutation >( pending );
+                pending.clear();
+            }
+            try
+            {
+                write( drained.values() );
+            } catch ( RuntimeException e )
+            {
+                logger.log(
+                        Level.WARNING,
+                        "Couldn't write " + drained.size() + " rows in one transaction, writing them one by one.",
+                        e
+                );
+                reset();
+                writeEach( drained );
+            }
+        }
+    }
+
+    private void writeEach( Map< String, Mutation > drained )
+    {
+        Map< String, Mutation > failed = new LinkedHashMap< String, Mutation >();
+        RuntimeException cause = null;
+        for ( Map.Entry< String, Mutation > entry : drained.entrySet() )
+        {
+            try
+            {
+                write( Collections.singletonList( entry.getValue() ) );
+            } catch ( RuntimeException e )
+            {
+                failed.put( entry.getKey(), entry.getValue() );
+                cause = e;
+            }
+        }
+        if ( !failed.isEmpty() )
+        {
+            retry( failed, cause );
+        }
+    }
+
+    /**
+     * Stop the background thread and write everything pending.
+     */
+    public void close()
+    {
+        running = false;
+        synchronized ( pending )
+        {
+            pending.notifyAll();
+        }
+        try
+        {
+            thread.join( interval * 2 );
+        } catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        for ( int i = 0; i < ATTEMPTS && size() > 0; i++ )
+        {
+            flush();
+        }
+        if ( size() > 0 )
+        {
+            logger.severe( size() + " writes couldn't be flushed and are lost." );
+        }
+        synchronized ( flushing )
+        {
+            connector.closeDedicatedConnection( connection );
+            connection = null;
+        }
+    }
+
+    private void loop()
+    {
+        while ( running )
+        {
+            synchronized ( pending )
+            {
+                if ( running && pending.size() < capacity / 2 )
+                {
+                    try
+                    {
+                        pending.wait( interval );
+                    } catch ( InterruptedException e )
+                    {
+                        return;
+                    }
+                }
+            }
+            try
+            {
+                flush();
+            } catch ( RuntimeException e )
+            {
+                logger.log( Level.SEVERE, "Couldn't flush the writes.", e );
+            }
+        }
+    }
+
+    private void write( Iterable< Mutation > mutations )
+    {
+        // A statement joins the open batch of its SQL, unless its row already has a
+        // statement in a later batch, or it's an INSERT and its table had a DELETE or
+        // UPDATE queued after that batch opened. Then it opens a new batch, at the end.
+        // A DELETE or UPDATE of a row only touches the row's own data, so it may join
+        // an earlier batch.
+        List< Batch > batches = new ArrayList< Batch >();
+        Map< String, Batch > open = new HashMap< String, Batch >();
+        Map< String, Integer > last = new HashMap< String, Integer >();
+        Map< String, Integer > freed = new HashMap< String, Integer >();
+        for ( Mutation mutation : mutations )
+        {
+            Integer after = last.get( mutation.row );
+            for ( Statement statement : mutation.statements )
+            {
+                Integer barrier = statement.insert ? freed.get( statement.table ) : null;
+                Batch batch = open.get( statement.sql );
+                if ( batch == null ||
+                        ( after != null && batch.position < after ) ||
+                        ( barrier != null && batch.position <= barrier ) )
+                {
+                    batch = new Batch( statement.sql, batches.size() );
+                    batches.add( batch );
+                    open.put( statement.sql, batch );
+                }
+                batch.parameters.add( statement.parameters );
+                after = batch.position;
+                if ( !statement.insert )
+                {
+                    Integer previous = freed.get( statement.table );
+                    freed.put( statement.table, previous == null ? after : Math.max( previous, after ) );
+                }
+            }
+            last.put( mutation.row, after );
+        }
+
+        // One transaction, so a failed flush leaves nothing half written.
+        DatabaseBatch batch = batch();
+        for ( Batch group : batches )
+        {
+            for ( Object[] parameters : group.parameters )
+            {
+                batch.add( group.sql, parameters );
+            }
+        }
+        batch.execute();
+        logger.log(
+                batch.getCount() >= REPORT ? Level.INFO : Level.FINE,
+                String.format(
+                        "Wrote %d statements in %d ms (%.0f rows/s).",
+                        batch.getCount(),
+                        batch.getElapsedMillis(),
+                        batch.getRowsPerSecond()
+                )
+        );
+    }
+
+    private DatabaseBatch batch()
+    {
+        if ( connector.isPooled() )
+        {
+            return connector.batch( connector.getBatchSize(), true );
+        }
+        try
+        {
+            if ( connection == null || connection.isClosed() )
+            {
+                connection = connector.openDedicatedConnection();
+            }
+        } catch ( SQLException e )
+        {
+            throw new RuntimeException( e );
+        }
+        return connector.batch( connection, connector.getBatchSize(), true );
+    }
+
+    private void reset()
+    {
+        if ( !connector.isPooled() )
+        {
+            connector.closeDedicatedConnection( connection );
+            connection = null;
+        }
+    }
+
+    private void retry( Map< String, Mutation > drained, RuntimeException cause )
+    {
+        int dropped = 0;
+        synchronized ( pending )
+        {
+            Map< String, Mutation > newer = new LinkedHashMap< String, Mutation >( pending );
+            pending.clear();
+            for ( Map.Entry< String, Mutation > entry : drained.entrySet() )
+            {
+                if ( newer.containsKey( entry.getKey() ) )
+                {
+                    continue;
+                }
+                if ( ++entry.getValue().attempts < ATTEMPTS )
+                {
+                    pending.put( entry.getKey(), entry.getValue() );
+                } else
+                {
+                    dropped++;
+                }
+            }
+            pending.putAll( newer );
+        }
+        logger.log(
+                Level.SEVERE,
+                "Couldn't write " + drained.size() + " rows, " + dropped + " of them are dropped after " +
+                        ATTEMPTS + " attempts.",
+                cause
+        );
+    }
+
+    public static class Statement
+    {
+        private final String   sql;
+        private final Object[] parameters;
+        private final String   table;
+        private final boolean  insert;
+
+        public Statement( String sql, Object... parameters )
+        {
+            this.sql = sql;
+            this.parameters = parameters;
+            String[] words = sql.trim().split( "\\s+" );
+            String table = sql;
+            for ( int i = 0; i < words.length - 1; i++ )
+            {
+                if ( words[ i ].equalsIgnoreCase( "INTO" ) ||
+                        words[ i ].equalsIgnoreCase( "FROM" ) ||
+                        words[ i ].equalsIgnoreCase( "UPDATE" ) )
+                {
+                    table = words[ i + 1 ].toLowerCase();
+                    break;
+                }
+            }
+            this.table = table;
+            this.insert = words[ 0 ].equalsIgnoreCase( "INSERT" ) || words[ 0 ].equalsIgnoreCase( "REPLACE" );
+        }
+    }
+
+    private static class Mutation
+    {
+        private final String      row;
+        private final Statement[] statements;
+        private       int         attempts;
+
+        private Mutation( String row, Statement[] statements )
+        {
+            this.row = row;
+            this.statements = statements;
+        }
+    }
+
+    private static class Batch
+    {
+        private final String           sql;
+        private final int              position;
+        private final List< Object[] > parameters = new ArrayList< Object[] >();
+
+        private Batch( String sql, int position )
+        {
+            this.sql = sql;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.bukkit;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.index.RegionIndex;
+import me.nikosgram.oglofus.utils.LongObjectMap;
+import org.bukkit.Location;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the region, or the wilderness, of the containers hoppers move items between.
+ * An inventory only gives its position through its holder, which is a new block state on
+ * every call, so a container's holder is resolved once and its region is kept until a
+ * region is added or removed, or the container's block changes, see
+ * {@link #invalidate(int, int, int, int)}.
+ * <p>
+ * A container's inventory compares by its block entity, which lives as long as the block,
+ * and a double chest is kept by its left side. Minecarts move, so they are resolved every
+ * time. Past a limit of containers the cache starts over. It is not thread-safe, it must
+ * be used from the server thread.
+ */
+public class ContainerCache
+{
+    private static final Object NONE = new Object();
+
+    private final RegionIndex                        index;
+    private final int                                limit;
+    private final Map< Inventory, Object >           regions = new HashMap< Inventory, Object >();
+    private final List< LongObjectMap< Inventory > > worlds  = new ArrayList< LongObjectMap< Inventory > >();
+    private       long                               generation;
+
+    public ContainerCache( RegionIndex index, int limit )
+    {
+        this.index = index;
+        this.limit = limit;
+        this.generation = index.getGeneration();
+    }
+
+    /**
+     * Get the region which contains the inventory's holder.
+     *
+     * @param inventory the inventory
+     * @return the region, or null if the holder isn't protected or isn't in the world
+     */
+    public ProtectionRegion getRegion( Inventory inventory )
+    {
+        if ( this.generation != this.index.getGeneration() )
+        {
+            clear();
+            this.generation = this.index.getGeneration();
+        }
+        if ( inventory instanceof DoubleChestInventory )
+        {
+            inventory = ( ( DoubleChestInventory ) inventory ).getLeftSide();
+        }
+        Object cached;
+        if ( ( cached = this.regions.get( inventory ) ) != null )
+        {
+            return cached == NONE ? null : ( ProtectionRegion ) cached;
+        }
+        InventoryHolder holder = inventory.getHolder();
+        if ( holder instanceof BlockState )
+        {
+            BlockState state = ( BlockState ) holder;
+            int world = this.index.worldIndex( state.getWorld().getUID() );
+            ProtectionRegion region = this.index.getRegion( world, state.getX(), state.getY(), state.getZ() );
+            if ( this.regions.size() >= this.limit )
+            {
+                clear();
+            }
+            while ( this.worlds.size() <= world )
+            {
+                this.worlds.add( new LongObjectMap< Inventory >() );
+            }
+            Inventory previous;
+            // A container which replaced an other one without a block event takes over its position.
+            if ( ( previous = this.worlds.get( world ).put(
+                    RegionIndex.blockKey( state.getX(), state.getY(), state.getZ() ), inventory
+            ) ) != null )
+            {
+                this.regions.remove( previous );
+            }
+            this.regions.put( inventory, region == null ? NONE : region );
+            return region;
+        }
+        if ( holder instanceof Entity )
+        {
+            Location location = ( ( Entity ) holder ).getLocation();
+            return this.index.getRegion(
+                    this.index.worldIndex( location.getWorld().getUID() ),
+                    location.getBlockX(), location.getBlockY(), location.getBlockZ()
+            );
+        }
+        return null;
+    }
+
+    /**
+     * Forget the container of a block, after the block changed.
+     *
+     * @param world the world's index
+     * @param x     the block's x
+     * @param y     the block's y
+     * @param z     the block's z
+     */
+    public void invalidate( int world, int x, int y, int z )
+    {
+        if ( world >= this.worlds.size() )
+        {
+            return;
+        }
+        Inventory inventory;
+        if ( ( inventory = this.worlds.get( world ).remove( RegionIndex.blockKey( x, y, z ) ) ) != null )
+        {
+            this.regions.remove( inventory );
+        }
+    }
+
+    public void clear()
+    {
+        this.regions.clear();
+        for ( int i = 0; i < this.worlds.size(); i++ )
+        {
+            this.worlds.get( i ).clear();
+        }
+    }
+}
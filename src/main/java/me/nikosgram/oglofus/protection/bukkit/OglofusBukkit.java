@@ -18,36 +18,82 @@ package me.nikosgram.oglofus.protection.bukkit;
 
 import lombok.Getter;
 import me.nikosgram.oglofus.database.DatabaseConnector;
+import me.nikosgram.oglofus.database.DatabaseDriver;
 import me.nikosgram.oglofus.database.MySQLDatabaseDriver;
+import me.nikosgram.oglofus.database.PooledDatabaseDriver;
 import me.nikosgram.oglofus.database.SQLiteDatabaseDriver;
+import me.nikosgram.oglofus.database.WriteBehindQueue;
 import me.nikosgram.oglofus.protection.api.OglofusProtection;
+import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.manager.InvitationManager;
-import me.nikosgram.oglofus.protection.api.manager.RegionManager;
 import me.nikosgram.oglofus.protection.api.plugin.ProtectionPlugin;
-import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
 import me.nikosgram.oglofus.protection.bukkit.handler.WorldGuardHandler;
+import me.nikosgram.oglofus.protection.cache.BypassCache;
+import me.nikosgram.oglofus.protection.index.RegionCache;
+import me.nikosgram.oglofus.protection.index.RegionIndex;
+import me.nikosgram.oglofus.protection.storage.JournalRegionStorage;
+import me.nikosgram.oglofus.protection.storage.MappedRegionStorage;
+import me.nikosgram.oglofus.protection.storage.RegionStorage;
+import me.nikosgram.oglofus.protection.storage.SQLRegionStorage;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class OglofusBukkit extends JavaPlugin implements ProtectionPlugin, Listener
 {
     @Getter
-    private DatabaseConnector connector;
+    private DatabaseConnector    connector;
     @Getter
-    private RegionManager     regionManager;
+    private RegionStorage        storage;
     @Getter
-    private InvitationManager invitationManager;
+    private OglofusRegionManager regionManager;
+    @Getter
+    private InvitationManager    invitationManager;
+    @Getter
+    private final BypassCache    bypassCache = new BypassCache()
+    {
+        @Override
+        protected int resolve( UUID target )
+        {
+            Player player;
+            if ( ( player = getServer().getPlayer( target ) ) == null )
+            {
+                return -1;
+            }
+            return ( player.hasPermission( "oglofus.protection.bypass.owner" ) ? OWNER : 0 ) |
+                    ( player.hasPermission( "oglofus.protection.bypass.officer" ) ? OFFICER : 0 ) |
+                    ( player.hasPermission( "oglofus.protection.bypass.member" ) ? MEMBER : 0 );
+        }
+    };
+    private final List< ProtectionRegion > exploded = new ArrayList< ProtectionRegion >();
+    private       Material                 protector;
 
     public OglofusBukkit()
     {
@@ -60,58 +106,169 @@ public class OglofusBukkit extends JavaPlugin implements ProtectionPlugin, Liste
         saveDefaultConfig();
         getConfig().options().copyDefaults( true );
 
-        if ( getConfig().getString( "database.type" ).equalsIgnoreCase( "sqlite" ) )
+        if ( getConfig().getString( "database.type" ).equalsIgnoreCase( "flatfile" ) )
         {
-            this.connector = new DatabaseConnector(
-                    new SQLiteDatabaseDriver(
-                            Paths.get(
-                                    getConfig().getString(
-                                            "database.host"
-                                    )
-                            )
-                    )
+            this.storage = new MappedRegionStorage( new File( getConfig().getString( "database.folder" ) ) );
+        } else if ( getConfig().getString( "database.type" ).equalsIgnoreCase( "journal" ) )
+        {
+            this.storage = new JournalRegionStorage(
+                    new File( getConfig().getString( "database.folder" ) ),
+                    getConfig().getLong( "database.journal.sync" ),
+                    getConfig().getLong( "database.journal.snapshot" )
             );
         } else
         {
-            this.connector = new DatabaseConnector(
-                    new MySQLDatabaseDriver(
-                            getConfig().getString( "database.user" ),
-                            getConfig().getString( "database.data" ),
-                            getConfig().getString( "database.pass" ),
-                            getConfig().getString( "database.host" ),
-                            getConfig().getInt( "database.port" )
-                    )
-            );
-        }
+            DatabaseDriver driver;
+            if ( getConfig().getString( "database.type" ).equalsIgnoreCase( "sqlite" ) )
+            {
+                driver = new SQLiteDatabaseDriver(
+                        Paths.get(
+                                getConfig().getString(
+                                        "database.host"
+                                )
+                        )
+                );
+            } else
+            {
+                driver = new MySQLDatabaseDriver(
+                        getConfig().getString( "database.user" ),
+                        getConfig().getString( "database.data" ),
+                        getConfig().getString( "database.pass" ),
+                        getConfig().getString( "database.host" ),
+                        getConfig().getInt( "database.port" )
+                );
+            }
+
+            if ( getConfig().getBoolean( "database.pool.enabled" ) )
+            {
+                driver = new PooledDatabaseDriver(
+                        driver,
+                        getConfig().getInt( "database.pool.min" ),
+                        getConfig().getInt( "database.pool.max" ),
+                        getConfig().getBoolean( "database.pool.validate" ),
+                        getConfig().getLong( "database.pool.idle" ) * 1000L,
+                        getConfig().getLong( "database.pool.leak" ) * 1000L,
+                        getConfig().getLong( "database.pool.timeout" ) * 1000L
+                );
+            }
+
+            this.connector = new DatabaseConnector( driver );
+            this.connector.setBatchSize( getConfig().getInt( "database.batch.size" ) );
+            this.connector.setBatchTransaction( getConfig().getBoolean( "database.batch.transaction" ) );
+
+            this.connector.openConnection();
 
-        this.connector.openConnection();
+            if ( connector.checkConnection() )
+            {
+                this.storage = new SQLRegionStorage(
+                        this.connector,
+                        "binary".equalsIgnoreCase( getConfig().getString( "database.uuid" ) ),
+                        getConfig().getInt( "database.queue.size" ),
+                        getConfig().getLong( "database.queue.interval" )
+                );
+            }
+        }
 
-        if ( connector.checkConnection() )
+        if ( this.storage != null )
         {
+            this.invitationManager = new OglofusInvitationManager( this );
             this.regionManager = new OglofusRegionManager( this );
-            this.invitationManager = new OglofusInvitationManager(this);
         }
     }
 
     @Override
     public void onEnable()
     {
+        this.protector = Material.matchMaterial( getConfig().getString( "protection.material" ) );
+        if ( this.protector == null )
+        {
+            getLogger().warning(
+                    "Unknown protection.material " + getConfig().getString( "protection.material" ) +
+                            ", no protector block can create a region."
+            );
+        }
         if ( getServer().getPluginManager().getPlugin( "WorldGuard" ) != null )
         {
-            this.regionManager.registerHandler( new WorldGuardHandler() );
+            this.regionManager.registerHandler( new WorldGuardHandler( getServer() ) );
         }
         getServer().getPluginManager().registerEvents( this, this );
+
+        // Permission plugins don't announce their changes, so the decisions expire.
+        long refresh = Math.max( getConfig().getLong( "protection.bypass-refresh" ), 1L ) * 20L;
+        getServer().getScheduler().runTaskTimer(
+                this, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        OglofusBukkit.this.bypassCache.clear();
+                    }
+                }, refresh, refresh
+        );
     }
 
     @Override
     public void onDisable()
     {
-        connector.closeConnection();
+        if ( this.regionManager != null )
+        {
+            RegionCache cache = this.regionManager.getCache();
+            getLogger().info(
+                    String.format(
+                            "Region cache hit ratio: %.1f%% (%d of %d lookups).",
+                            cache.getHitRatio() * 100, cache.getHits(), cache.getLookups()
+                    )
+            );
+        }
+        if ( this.storage != null )
+        {
+            this.storage.close();
+        }
+        if ( this.connector != null )
+        {
+            this.connector.closeConnection();
+        }
     }
 
     @Override
     public boolean onCommand( CommandSender sender, Command command, String label, String[] args )
     {
+        if ( args.length == 1 && args[ 0 ].equalsIgnoreCase( "stats" ) )
+        {
+            if ( !sender.hasPermission( "oglofus.protection.command.stats" ) )
+            {
+                sender.sendMessage( ChatColor.RED + "You do not have permission to use this command!" );
+                return true;
+            }
+            if ( this.regionManager != null )
+            {
+                RegionCache cache = this.regionManager.getCache();
+                sender.sendMessage(
+                        ChatColor.GRAY + String.format(
+                                "Region cache hit ratio: %.1f%% (%d of %d lookups).",
+                                cache.getHitRatio() * 100, cache.getHits(), cache.getLookups()
+                        )
+                );
+            }
+            if ( this.connector != null && this.connector.isPooled() )
+            {
+                sender.sendMessage(
+                        ChatColor.GRAY + ( ( PooledDatabaseDriver ) this.connector.getDriver() ).getStatistics()
+                );
+            } else
+            {
+                sender.sendMessage( ChatColor.GRAY + "The database isn't pooled." );
+            }
+            if ( this.storage instanceof SQLRegionStorage )
+            {
+                WriteBehindQueue queue = ( ( SQLRegionStorage ) this.storage ).getQueue();
+                sender.sendMessage(
+                        ChatColor.GRAY + "Write-behind queue: " + queue.size() + " pending, " +
+                                queue.getOverflowCount() + " queued past the capacity."
+                );
+            }
+            return true;
+        }
         //TODO
         return super.onCommand( sender, command, label, args );
     }
@@ -123,6 +280,28 @@ public class OglofusBukkit extends JavaPlugin implements ProtectionPlugin, Liste
         return super.onTabComplete( sender, command, alias, args );
     }
 
+    @EventHandler
+    public void invalidate( PlayerJoinEvent event )
+    {
+        this.bypassCache.invalidate( event.getPlayer().getUniqueId() );
+    }
+
+    @EventHandler
+    public void invalidate( PlayerQuitEvent event )
+    {
+        this.bypassCache.invalidate( event.getPlayer().getUniqueId() );
+        if ( this.regionManager != null )
+        {
+            this.regionManager.getCache().invalidate( event.getPlayer().getUniqueId() );
+        }
+    }
+
+    @EventHandler
+    public void invalidate( PlayerChangedWorldEvent event )
+    {
+        this.bypassCache.invalidate( event.getPlayer().getUniqueId() );
+    }
+
     @EventHandler
     public void security( PlayerInteractEvent event )
     {
@@ -132,87 +311,241 @@ public class OglofusBukkit extends JavaPlugin implements ProtectionPlugin, Liste
         {
             return;
         }
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                event.getClickedBlock().getWorld().getUID(),
-                event.getClickedBlock().getX(),
-                event.getClickedBlock().getY(),
-                event.getClickedBlock().getZ()
-        );
-        ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( denied( event.getPlayer().getUniqueId(), event.getClickedBlock() ) )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getPlayer().getUniqueId() ) )
-            {
-                event.setCancelled( true );
-            } else
-            {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getPlayer().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
-            }
+            event.setCancelled( true );
         }
     }
 
     @EventHandler
     public void security( BlockPlaceEvent event )
     {
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                event.getBlock().getWorld().getUID(),
-                event.getBlock().getX(),
-                event.getBlock().getY(),
-                event.getBlock().getZ()
+        if ( denied( event.getPlayer().getUniqueId(), event.getBlock() ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    /**
+     * Claim the area around a placed protector block. Runs after the security checks,
+     * so a block denied by an other region never gets here.
+     */
+    @EventHandler( priority = EventPriority.HIGH, ignoreCancelled = true )
+    public void create( BlockPlaceEvent event )
+    {
+        Block block = event.getBlock();
+        if ( this.regionManager == null || this.protector == null || block.getType() != this.protector )
+        {
+            return;
+        }
+        ActionResponse response = this.regionManager.createProtectionRegion(
+                new OglofusProtectionLocation( this, block.getLocation() ), event.getPlayer().getUniqueId()
         );
-        ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( response.equals( ActionResponse.Successful ) )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getPlayer().getUniqueId() ) )
-            {
-                event.setCancelled( true );
-            } else
-            {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getPlayer().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
-            }
+            event.getPlayer().sendMessage( ChatColor.GRAY + "You have protected this area." );
+            return;
+        }
+        event.setCancelled( true );
+        switch ( response.getMessage() )
+        {
+            case "overlap":
+                event.getPlayer().sendMessage( ChatColor.RED + "This area overlaps an other region." );
+                break;
+            case "handler":
+                event.getPlayer().sendMessage( ChatColor.RED + "You can't protect this area." );
+                break;
+            default:
+                event.getPlayer().sendMessage( ChatColor.RED + "Couldn't save the region, please try again." );
         }
     }
 
     @EventHandler
     public void security( BlockBreakEvent event )
     {
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                event.getBlock().getWorld().getUID(),
-                event.getBlock().getX(),
-                event.getBlock().getY(),
-                event.getBlock().getZ()
+        if ( denied( event.getPlayer().getUniqueId(), event.getBlock() ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    @EventHandler( ignoreCancelled = true )
+    public void security( EntityExplodeEvent event )
+    {
+        List< Block > blocks = event.blockList();
+        if ( blocks.isEmpty() )
+        {
+            return;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for ( int i = 0; i < blocks.size(); i++ )
+        {
+            Block block = blocks.get( i );
+            minX = Math.min( minX, block.getX() );
+            minY = Math.min( minY, block.getY() );
+            minZ = Math.min( minZ, block.getZ() );
+            maxX = Math.max( maxX, block.getX() );
+            maxY = Math.max( maxY, block.getY() );
+            maxZ = Math.max( maxZ, block.getZ() );
+        }
+        // The candidates are resolved once for the blast's box, then the list is filtered in place.
+        this.exploded.clear();
+        this.regionManager.regionsIn(
+                this.regionManager.worldIndex( blocks.get( 0 ).getWorld().getUID() ),
+                minX, minY, minZ, maxX, maxY, maxZ, this.exploded
         );
-        ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( this.exploded.isEmpty() )
+        {
+            return;
+        }
+        int kept = 0;
+        for ( int i = 0; i < blocks.size(); i++ )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getPlayer().getUniqueId() ) )
+            Block block = blocks.get( i );
+            if ( !RegionIndex.contains( this.exploded, block.getX(), block.getY(), block.getZ() ) )
             {
-                event.setCancelled( true );
-            } else
+                blocks.set( kept++, block );
+            }
+        }
+        blocks.subList( kept, blocks.size() ).clear();
+        this.exploded.clear();
+    }
+
+    @EventHandler( ignoreCancelled = true )
+    public void security( BlockFromToEvent event )
+    {
+        Block from = event.getBlock();
+        Block to = event.getToBlock();
+        ProtectionRegion region;
+        // Flowing into the wilderness or inside one region is fine, only a flow into another region is cut.
+        if ( ( region = this.regionManager.regionAt(
+                this.regionManager.worldIndex( to.getWorld().getUID() ), to.getX(), to.getY(), to.getZ()
+        ) ) != null && !RegionIndex.contains( region, from.getX(), from.getY(), from.getZ() ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    @EventHandler( ignoreCancelled = true )
+    public void security( BlockPistonExtendEvent event )
+    {
+        if ( crosses( event.getBlock(), event.getBlocks(), event.getDirection(), true ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    @EventHandler( ignoreCancelled = true )
+    public void security( BlockPistonRetractEvent event )
+    {
+        if ( crosses( event.getBlock(), event.getBlocks(), event.getDirection(), false ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    /**
+     * Check if a piston moves any block from or into a region other than its own.
+     * The events give the direction the blocks move, for a retraction too.
+     *
+     * @param piston    the piston
+     * @param blocks    the moved blocks
+     * @param direction the direction the blocks move
+     * @param extend    true if the piston extends
+     * @return true if the event must be cancelled
+     */
+    private boolean crosses( Block piston, List< Block > blocks, BlockFace direction, boolean extend )
+    {
+        int world = this.regionManager.worldIndex( piston.getWorld().getUID() );
+        int dx = direction.getModX();
+        int dy = direction.getModY();
+        int dz = direction.getModZ();
+        ProtectionRegion own = this.regionManager.regionAt( world, piston.getX(), piston.getY(), piston.getZ() );
+        if ( extend && foreign( world, own, piston.getX() + dx, piston.getY() + dy, piston.getZ() + dz ) )
+        {
+            return true;
+        }
+        for ( int i = 0; i < blocks.size(); i++ )
+        {
+            Block block = blocks.get( i );
+            if ( foreign( world, own, block.getX(), block.getY(), block.getZ() ) ||
+                    foreign( world, own, block.getX() + dx, block.getY() + dy, block.getZ() + dz ) )
             {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getPlayer().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
+                return true;
             }
         }
+        return false;
+    }
+
+    private boolean foreign( int world, ProtectionRegion own, int x, int y, int z )
+    {
+        if ( own != null && RegionIndex.contains( own, x, y, z ) )
+        {
+            return false;
+        }
+        return this.regionManager.regionAt( world, x, y, z ) != null;
+    }
+
+    @EventHandler( ignoreCancelled = true )
+    public void security( InventoryMoveItemEvent event )
+    {
+        // Hoppers move an item every few ticks, the containers' regions come from the container cache.
+        // Only items leaving a region are stopped, a hopper may still fill or empty the wilderness.
+        ProtectionRegion source;
+        if ( ( source = this.regionManager.getContainers().getRegion( event.getSource() ) ) != null &&
+                source != this.regionManager.getContainers().getRegion( event.getDestination() ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void invalidate( BlockBreakEvent event )
+    {
+        invalidate( event.getBlock() );
+    }
+
+    @EventHandler( priority = EventPriority.MONITOR, ignoreCancelled = true )
+    public void invalidate( EntityExplodeEvent event )
+    {
+        List< Block > blocks = event.blockList();
+        for ( int i = 0; i < blocks.size(); i++ )
+        {
+            invalidate( blocks.get( i ) );
+        }
+    }
+
+    private void invalidate( Block block )
+    {
+        this.regionManager.getContainers().invalidate(
+                this.regionManager.worldIndex( block.getWorld().getUID() ), block.getX(), block.getY(), block.getZ()
+        );
+    }
+
+    /**
+     * Check if a player may not change the block.
+     *
+     * @param player the player
+     * @param block  the block
+     * @return true if the event must be cancelled
+     */
+    private boolean denied( UUID player, Block block )
+    {
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        ProtectionRegion region;
+        if ( ( region = this.regionManager.regionAt(
+                player, this.regionManager.worldIndex( block.getWorld().getUID() ), x, y, z
+        ) ) == null )
+        {
+            return false;
+        }
+        if ( !region.getProtectionStaff().hasMemberAccess( player ) )
+        {
+            return true;
+        }
+        return RegionIndex.isProtector( region, x, y, z ) && !region.getProtectionStaff().hasOwnerAccess( player );
     }
 }
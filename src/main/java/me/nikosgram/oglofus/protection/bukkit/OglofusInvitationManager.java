@@ -31,13 +31,6 @@ public class OglofusInvitationManager implements InvitationManager
     protected OglofusInvitationManager( OglofusBukkit bukkit )
     {
         this.bukkit = bukkit;
-       this. bukkit.getConnector().createTable(
-                "oglofus_staff",
-                "id int identity(1,1) primary key",
-                "uuid varchar(36)",
-                "player varchar(36)",
-                "rank varchar(10)"
-        );
     }
 
     @Override
@@ -21,6 +21,7 @@ import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
 import me.nikosgram.oglofus.protection.api.region.ProtectionStaff;
 import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+import me.nikosgram.oglofus.protection.storage.RegionRecord;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
@@ -38,15 +39,17 @@ public class OglofusProtectionRegion implements ProtectionRegion
     @Getter
     private       String           name;
 
-    protected OglofusProtectionRegion( UUID uuid, OglofusBukkit bukkit )
+    protected OglofusProtectionRegion( OglofusBukkit bukkit, RegionRecord record )
     {
-        this.uuid = uuid;
+        this.uuid = record.getUuid();
         this.bukkit = bukkit;
-        this.name = this.bukkit.getConnector().getString(
-                "oglofus_regions", "uuid", this.uuid.toString(), "name"
-        ).get();
-        this.protectionStaff = new OglofusProtectionStaff( this, this.bukkit );
-        this.protectionVector = new OglofusProtectionVector( this.uuid, this.bukkit );
+        this.name = record.getName();
+        this.protectionStaff = new OglofusProtectionStaff( this, this.bukkit, record.getOwner(), record.getStaff() );
+        this.protectionVector = new OglofusProtectionVector(
+                this.bukkit, record.getRadius(), new OglofusProtectionLocation(
+                        this.bukkit, record.getWorld(), record.getX(), record.getY(), record.getZ()
+                )
+        );
     }
 
     @Override
@@ -56,12 +59,14 @@ public class OglofusProtectionRegion implements ProtectionRegion
         {
             return ActionResponse.Failure.setMessage( "length" );
         }
-        if ( this.bukkit.getConnector().exists( "oglofus_regions", "name", name ) )
+        if ( this.bukkit.getRegionManager().getRegion( name ).isPresent() )
         {
             return ActionResponse.Failure.setMessage( "exists" );
         }
+        String previous = this.name;
         this.name = name;
-        this.bukkit.getConnector().update( "oglofus_regions", "uuid", this.uuid.toString(), "name", this.name );
+        ( ( OglofusRegionManager ) this.bukkit.getRegionManager() ).renameRegion( this, previous );
+        this.bukkit.getStorage().rename( this.uuid, this.name );
         return ActionResponse.Successful.setMessage( this.name );
     }
 
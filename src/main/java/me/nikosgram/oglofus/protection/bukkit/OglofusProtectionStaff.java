@@ -22,6 +22,7 @@ import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
 import me.nikosgram.oglofus.protection.api.region.ProtectionStaff;
+import me.nikosgram.oglofus.protection.cache.BypassCache;
 import me.nikosgram.oglofus.utils.OglofusUtils;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TextComponent;
@@ -33,30 +34,69 @@ import java.util.*;
 
 public class OglofusProtectionStaff implements ProtectionStaff
 {
-    private final Map< UUID, ProtectionRank > staff = new HashMap< UUID, ProtectionRank >();
+    private final Map< UUID, ProtectionRank >        staff = new HashMap< UUID, ProtectionRank >();
+    private final Map< ProtectionRank, Set< UUID > > ranks = new EnumMap< ProtectionRank, Set< UUID > >(
+            ProtectionRank.class
+    );
+    private final Map< ProtectionRank, Set< UUID > > views = new EnumMap< ProtectionRank, Set< UUID > >(
+            ProtectionRank.class
+    );
+    private final Set< UUID >                        view  = Collections.unmodifiableSet( this.staff.keySet() );
     @Getter
     private final UUID             owner;
     private final ProtectionRegion region;
     private final OglofusBukkit    bukkit;
 
-    protected OglofusProtectionStaff( ProtectionRegion region, OglofusBukkit sponge )
+    protected OglofusProtectionStaff(
+            ProtectionRegion region, OglofusBukkit bukkit, UUID owner, Map< UUID, ProtectionRank > staff
+    )
     {
         this.region = region;
-        this.bukkit = sponge;
-        this.owner = UUID.fromString(
-                this.bukkit.getConnector().getString(
-                        "oglofus_regions", "uuid", region.getUuid().toString(), "owner"
-                ).get()
-        );
-        Map< String, String > staff = this.bukkit.getConnector().getStringMap(
-                "oglofus_regions", "uuid", region.getUuid().toString(), new String[]{ "player", "rank" }
-        );
-        for ( String uid : staff.keySet() )
+        this.bukkit = bukkit;
+        this.owner = owner;
+        for ( ProtectionRank rank : ProtectionRank.values() )
         {
-            this.staff.put( UUID.fromString( uid ), ProtectionRank.valueOf( staff.get( uid ) ) );
+            Set< UUID > players = new HashSet< UUID >();
+            this.ranks.put( rank, players );
+            this.views.put( rank, Collections.unmodifiableSet( players ) );
+        }
+        for ( Map.Entry< UUID, ProtectionRank > entry : staff.entrySet() )
+        {
+            this.staff.put( entry.getKey(), entry.getValue() );
+            this.ranks.get( entry.getValue() ).add( entry.getKey() );
         }
     }
 
+    /**
+     * Get the number of the officers.
+     *
+     * @return the officers count
+     */
+    public int getOfficerCount()
+    {
+        return this.ranks.get( ProtectionRank.Officer ).size();
+    }
+
+    /**
+     * Get the number of the members.
+     *
+     * @return the members count
+     */
+    public int getMemberCount()
+    {
+        return this.ranks.get( ProtectionRank.Member ).size();
+    }
+
+    /**
+     * Get the number of the staff.
+     *
+     * @return the staff count
+     */
+    public int getStaffCount()
+    {
+        return this.staff.size();
+    }
+
     /**
      * Get the region's owner.
      *
@@ -86,7 +126,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getOfficersAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getOfficerCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : getOfficers() )
@@ -113,22 +153,15 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the officers ids.
+     * Get the officers ids. The collection is a live, unmodifiable view, not a
+     * snapshot: copy it to keep the officers of this moment.
      *
      * @return the members as {@link UUID}.
      */
     @Override
     public Collection< UUID > getOfficers()
     {
-        List< UUID > returned = new ArrayList< UUID >();
-        for ( UUID uuid : this.staff.keySet() )
-        {
-            if ( this.staff.get( uuid ).equals( ProtectionRank.Officer ) )
-            {
-                returned.add( uuid );
-            }
-        }
-        return returned;
+        return this.views.get( ProtectionRank.Officer );
     }
 
     /**
@@ -140,7 +173,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getMembersAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getMemberCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : getMembers() )
@@ -167,22 +200,15 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the members ids.
+     * Get the members ids. The collection is a live, unmodifiable view, not a
+     * snapshot: copy it to keep the members of this moment.
      *
      * @return the members as {@link UUID}.
      */
     @Override
     public Collection< UUID > getMembers()
     {
-        List< UUID > returned = new ArrayList< UUID >();
-        for ( UUID uuid : this.staff.keySet() )
-        {
-            if ( this.staff.get( uuid ).equals( ProtectionRank.Member ) )
-            {
-                returned.add( uuid );
-            }
-        }
-        return returned;
+        return this.views.get( ProtectionRank.Member );
     }
 
     /**
@@ -194,7 +220,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getStaffAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getStaffCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : this.staff.keySet() )
@@ -221,14 +247,14 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the staff ids.
+     * Get the staff ids. The collection is a live, unmodifiable view, not a snapshot.
      *
      * @return staff as {@link UUID}.
      */
     @Override
     public Collection< UUID > getStaff()
     {
-        return this.staff.keySet();
+        return this.view;
     }
 
     /**
@@ -252,7 +278,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean isOfficer( UUID target )
     {
-        return this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Officer );
+        return this.ranks.get( ProtectionRank.Officer ).contains( target );
     }
 
     /**
@@ -264,7 +290,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean isMember( UUID target )
     {
-        return this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Member );
+        return this.ranks.get( ProtectionRank.Member ).contains( target );
     }
 
     /**
@@ -292,9 +318,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
         {
             return true;
         }
-        Player player;
-        return ( player = this.bukkit.getServer().getPlayer( target ) ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.owner" );
+        return this.bukkit.getBypassCache().hasBypass( target, BypassCache.OWNER );
     }
 
     /**
@@ -306,13 +330,11 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean hasOfficerAccess( UUID target )
     {
-        if ( this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Officer ) )
+        if ( this.ranks.get( ProtectionRank.Officer ).contains( target ) )
         {
             return true;
         }
-        Player player;
-        return ( player = this.bukkit.getServer().getPlayer( target ) ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.officer" );
+        return this.bukkit.getBypassCache().hasBypass( target, BypassCache.OFFICER );
     }
 
     /**
@@ -324,13 +346,11 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean hasMemberAccess( UUID target )
     {
-        if ( this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Member ) )
+        if ( this.ranks.get( ProtectionRank.Member ).contains( target ) )
         {
             return true;
         }
-        Player player;
-        return ( player = this.bukkit.getServer().getPlayer( target ) ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.member" );
+        return this.bukkit.getBypassCache().hasBypass( target, BypassCache.MEMBER );
     }
 
     /**
@@ -342,7 +362,8 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public ProtectionRank getRank( UUID target )
     {
-        return this.staff.containsKey( target ) ? this.staff.get( target ) : ProtectionRank.None;
+        ProtectionRank rank;
+        return ( rank = this.staff.get( target ) ) == null ? ProtectionRank.None : rank;
     }
 
     /**
@@ -378,10 +399,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     {
         if ( message instanceof BaseComponent )
         {
-            for ( Player player : getStaffAs( Player.class ) )
-            {
-                player.spigot().sendMessage( ( BaseComponent ) message );
-            }
+            send( this.view, ( BaseComponent ) message );
         }
     }
 
@@ -399,20 +417,12 @@ public class OglofusProtectionStaff implements ProtectionStaff
             switch ( rank )
             {
                 case Member:
-                    for ( Player player : getMembersAs( Player.class ) )
-                    {
-                        player.spigot().sendMessage( ( BaseComponent ) message );
-                    }
-                    break;
                 case Officer:
-                    for ( Player player : getOfficersAs( Player.class ) )
-                    {
-                        player.spigot().sendMessage( ( BaseComponent ) message );
-                    }
+                    send( this.views.get( rank ), ( BaseComponent ) message );
                     break;
                 case Owner:
                     Player player;
-                    if ( ( player = getOwnerAs( Player.class ).orNull() ) != null )
+                    if ( ( player = this.bukkit.getServer().getPlayer( this.owner ) ) != null )
                     {
                         player.spigot().sendMessage( ( BaseComponent ) message );
                     }
@@ -421,6 +431,24 @@ public class OglofusProtectionStaff implements ProtectionStaff
         }
     }
 
+    /**
+     * Send a message to the online players of the collection.
+     *
+     * @param targets the players
+     * @param message the message
+     */
+    private void send( Collection< UUID > targets, BaseComponent message )
+    {
+        for ( UUID uuid : targets )
+        {
+            Player player;
+            if ( ( player = this.bukkit.getServer().getPlayer( uuid ) ) != null )
+            {
+                player.spigot().sendMessage( message );
+            }
+        }
+    }
+
     /**
      * Reflag this region.
      *
@@ -17,28 +17,56 @@
 package me.nikosgram.oglofus.protection.bukkit.handler;
 
 import com.google.common.base.Optional;
+import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
 import me.nikosgram.oglofus.protection.api.handler.ProtectionCreateHandler;
+import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
 import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
 import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
 
+/**
+ * Refuses the claims which overlap a WorldGuard region. The claim's cube is tested with
+ * a single cuboid query. The region managers aren't kept: WorldGuard caches them per
+ * world itself, and replaces them on /wg reload and /rg load.
+ */
 public class WorldGuardHandler implements ProtectionCreateHandler
 {
+    private static final String CHECK = "__oglofus_check__";
+
+    private final Server server;
+
+    public WorldGuardHandler( Server server )
+    {
+        this.server = server;
+    }
+
     public boolean hasRegion( Location loc )
     {
-        return WorldGuardPlugin.inst().getRegionManager( loc.getWorld() ).getApplicableRegions( loc ).size() > 0;
+        RegionManager manager = WorldGuardPlugin.inst().getRegionManager( loc.getWorld() );
+        return manager != null && manager.getApplicableRegions( loc ).size() > 0;
     }
 
     @Override
     public boolean execute( ProtectionVector vector, Optional< Object > sender )
     {
-        for ( Location location : vector.getBlocks( Location.class ) )
+        ProtectionLocation min = vector.getMinLocation();
+        ProtectionLocation max = vector.getMaxLocation();
+        World world;
+        RegionManager manager;
+        if ( ( world = this.server.getWorld( min.getWorld() ) ) == null ||
+                ( manager = WorldGuardPlugin.inst().getRegionManager( world ) ) == null )
         {
-            if ( hasRegion( location ) )
-            {
-                return false;
-            }
+            return true;
         }
-        return true;
+        ProtectedCuboidRegion cuboid = new ProtectedCuboidRegion(
+                CHECK,
+                new BlockVector( min.getX(), min.getY(), min.getZ() ),
+                new BlockVector( max.getX(), max.getY(), max.getZ() )
+        );
+        return manager.getApplicableRegions( cuboid ).size() == 0;
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.cache;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The bypass permissions of the online players, as one bitmask per player.
+ * <p>
+ * The permissions are resolved once per player and kept until the player joins,
+ * quits or changes world, or until the periodic {@link #clear()} which picks up
+ * the changes of the permission system.
+ */
+public abstract class BypassCache
+{
+    public static final int OWNER   = 1;
+    public static final int OFFICER = 1 << 1;
+    public static final int MEMBER  = 1 << 2;
+
+    private final ConcurrentMap< UUID, Byte > decisions = new ConcurrentHashMap< UUID, Byte >();
+
+    /**
+     * Check if a player has a bypass permission.
+     *
+     * @param player the player's {@link UUID}
+     * @param flag   the permission, {@link #OWNER}, {@link #OFFICER} or {@link #MEMBER}
+     * @return true if the player is online and has the permission
+     */
+    public boolean hasBypass( UUID player, int flag )
+    {
+        Byte mask = this.decisions.get( player );
+        if ( mask == null )
+        {
+            int resolved = resolve( player );
+            if ( resolved < 0 )
+            {
+                return false;
+            }
+            this.decisions.put( player, mask = ( byte ) resolved );
+        }
+        return ( mask & flag ) != 0;
+    }
+
+    /**
+     * Forget the permissions of a player.
+     *
+     * @param player the player's {@link UUID}
+     */
+    public void invalidate( UUID player )
+    {
+        this.decisions.remove( player );
+    }
+
+    /**
+     * Forget the permissions of every player.
+     */
+    public void clear()
+    {
+        this.decisions.clear();
+    }
+
+    /**
+     * Ask the permission system for the bypass permissions of a player.
+     *
+     * @param player the player's {@link UUID}
+     * @return the bitmask of the permissions, or -1 if the player isn't online
+     */
+    protected abstract int resolve( UUID player );
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.index;
+
+/**
+ * A Bloom filter of the chunks which hold any region. A clear bit proves that a chunk
+ * isn't claimed, two set bits only say that the chunk may be claimed, so most
+ * wilderness events end with two bit tests.
+ * <p>
+ * The filter is sized for the chunks it holds, {@link #BITS_PER_CHUNK} bits each, and
+ * never smaller than 8 KB. Its bits are never cleared: a released chunk stays set, a
+ * false positive at worst. Once the claimed and released chunks together pass an
+ * eighth of the bits, {@link #isFull()} asks the owner to build a new filter from the
+ * claimed chunks. At that load two hashes give about 5% false positives, right after a
+ * build about 1.5%.
+ */
+public class ChunkFilter
+{
+    public static final int BITS_PER_CHUNK = 16;
+
+    private static final int MIN_BITS = 16;
+
+    private final long[] bits;
+    private final int    shift;
+    private final int    limit;
+    private       int    load;
+
+    /**
+     * @param chunks the claimed chunks the filter will hold
+     */
+    public ChunkFilter( int chunks )
+    {
+        int size = MIN_BITS;
+        while ( size < 31 && ( 1L << size ) < ( long ) chunks * BITS_PER_CHUNK )
+        {
+            size++;
+        }
+        this.bits = new long[ ( int ) ( ( 1L << size ) >>> 6 ) ];
+        this.shift = 64 - size;
+        this.limit = ( int ) ( ( 1L << size ) >>> 3 );
+    }
+
+    /**
+     * Check if the chunk may hold a region.
+     *
+     * @param chunkKey the chunk's key, see {@link RegionIndex#chunkKey(int, int)}
+     * @return false if the chunk surely doesn't hold any region
+     */
+    public boolean mayContain( long chunkKey )
+    {
+        int first = ( int ) ( ( chunkKey * 0x9E3779B97F4A7C15L ) >>> this.shift );
+        int second = ( int ) ( ( chunkKey * 0xC2B2AE3D27D4EB4FL ) >>> this.shift );
+        return ( this.bits[ first >>> 6 ] & ( 1L << first ) ) != 0 &&
+                ( this.bits[ second >>> 6 ] & ( 1L << second ) ) != 0;
+    }
+
+    /**
+     * Mark a chunk as claimed, once for every chunk which got its first region.
+     *
+     * @param chunkKey the chunk's key
+     */
+    public void add( long chunkKey )
+    {
+        int first = ( int ) ( ( chunkKey * 0x9E3779B97F4A7C15L ) >>> this.shift );
+        int second = ( int ) ( ( chunkKey * 0xC2B2AE3D27D4EB4FL ) >>> this.shift );
+        this.bits[ first >>> 6 ] |= 1L << first;
+        this.bits[ second >>> 6 ] |= 1L << second;
+        this.load++;
+    }
+
+    /**
+     * Count a chunk which lost its last region. Its bits stay set until the next build.
+     *
+     * @param chunkKey the chunk's key
+     */
+    public void remove( long chunkKey )
+    {
+        this.load++;
+    }
+
+    /**
+     * Check if the filter holds too many chunks, claimed or released, to stay accurate.
+     *
+     * @return true if a new filter should be built from the claimed chunks
+     */
+    public boolean isFull()
+    {
+        return this.load > this.limit;
+    }
+}
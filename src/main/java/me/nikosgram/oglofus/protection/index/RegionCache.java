@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers the last region every player was found in, with its cube. Players mostly
+ * act around the same place, so the next lookup is usually answered by a bounds check
+ * and the {@link RegionIndex} is asked only when the location leaves the cube. The
+ * entries are dropped when the index's generation changes.
+ * <p>
+ * The cache is not thread-safe, it must be used from the server thread.
+ */
+public class RegionCache
+{
+    private final RegionIndex        index;
+    private final Map< UUID, Entry > entries = new HashMap< UUID, Entry >();
+    private       long               lookups;
+    private       long               hits;
+
+    public RegionCache( RegionIndex index )
+    {
+        this.index = index;
+    }
+
+    /**
+     * Get the region which contains the location, checking first the player's last one.
+     *
+     * @param player the player's {@link UUID}
+     * @param world  the world's index
+     * @param x      the block's x
+     * @param y      the block's y
+     * @param z      the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion getRegion( UUID player, int world, int x, int y, int z )
+    {
+        this.lookups++;
+        Entry entry = this.entries.get( player );
+        if ( entry != null && entry.generation == this.index.getGeneration() && entry.contains( world, x, y, z ) )
+        {
+            this.hits++;
+            return entry.region;
+        }
+        ProtectionRegion region;
+        if ( ( region = this.index.getRegion( world, x, y, z ) ) != null )
+        {
+            if ( entry == null )
+            {
+                this.entries.put( player, entry = new Entry() );
+            }
+            entry.set( region, world, this.index.getGeneration() );
+        }
+        return region;
+    }
+
+    /**
+     * Forget a player's last region, e.g. when the player quits.
+     *
+     * @param player the player's {@link UUID}
+     */
+    public void invalidate( UUID player )
+    {
+        this.entries.remove( player );
+    }
+
+    public long getLookups()
+    {
+        return this.lookups;
+    }
+
+    public long getHits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Get the part of the lookups which were answered by the cache.
+     *
+     * @return the hit ratio, from 0 to 1
+     */
+    public double getHitRatio()
+    {
+        return this.lookups == 0 ? 0 : ( double ) this.hits / this.lookups;
+    }
+
+    private static class Entry
+    {
+        private ProtectionRegion region;
+        private int              world;
+        private int              minX, minY, minZ;
+        private int              maxX, maxY, maxZ;
+        private long             generation;
+
+        private void set( ProtectionRegion region, int world, long generation )
+        {
+            ProtectionVector vector = region.getProtectionVector();
+            ProtectionLocation min = vector.getMinLocation();
+            ProtectionLocation max = vector.getMaxLocation();
+            this.region = region;
+            this.world = world;
+            this.minX = min.getX();
+            this.minY = min.getY();
+            this.minZ = min.getZ();
+            this.maxX = max.getX();
+            this.maxY = max.getY();
+            this.maxZ = max.getZ();
+            this.generation = generation;
+        }
+
+        private boolean contains( int world, int x, int y, int z )
+        {
+            return world == this.world &&
+                    x >= this.minX && x <= this.maxX &&
+                    y >= this.minY && y <= this.maxY &&
+                    z >= this.minZ && z <= this.maxZ;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Spatial index of the protection regions, keyed by (world, chunkX, chunkZ).
+ * Every bucket holds only the regions whose cube overlaps that chunk, so a
+ * lookup costs the same no matter how many regions the server has. The
+ * protector blocks are indexed separately for exact matches.
+ * <p>
+ * Every world gets a small index the first time it's seen, so the hot path can look
+ * a location up with primitives only, see {@link #getRegion(int, int, int, int)}.
+ * <p>
+ * The index is not thread-safe, it must be used from the server thread.
+ */
+public class RegionIndex
+{
+    private final Map< UUID, Integer > ids    = new HashMap< UUID, Integer >();
+    private       WorldIndex[]         worlds = new WorldIndex[ 4 ];
+    private       long                 generation;
+
+    /**
+     * Pack the chunk's coordinates to a single key.
+     *
+     * @param chunkX the chunk's x
+     * @param chunkZ the chunk's z
+     * @return the key
+     */
+    public static long chunkKey( int chunkX, int chunkZ )
+    {
+        return ( ( long ) chunkX << 32 ) | ( chunkZ & 0xFFFFFFFFL );
+    }
+
+    /**
+     * Pack the block's coordinates to a single key.
+     * x and z keep 26 bits, y keeps 12 bits.
+     *
+     * @param x the block's x
+     * @param y the block's y
+     * @param z the block's z
+     * @return the key
+     */
+    public static long blockKey( int x, int y, int z )
+    {
+        return ( ( x & 0x3FFFFFFL ) << 38 ) | ( ( z & 0x3FFFFFFL ) << 12 ) | ( y & 0xFFFL );
+    }
+
+    /**
+     * Get the world's index, a new one is given to the worlds which weren't seen before.
+     *
+     * @param world the world's {@link UUID}
+     * @return the world's index
+     */
+    public int worldIndex( UUID world )
+    {
+        Integer id;
+        if ( ( id = this.ids.get( world ) ) == null )
+        {
+            this.ids.put( world, id = this.ids.size() );
+            if ( id >= this.worlds.length )
+            {
+                this.worlds = Arrays.copyOf( this.worlds, this.worlds.length * 2 );
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Add a region to every chunk bucket its cube overlaps.
+     *
+     * @param region the region
+     */
+    public void add( ProtectionRegion region )
+    {
+        int world = worldIndex( region.getProtectionVector().getBlockLocation().getWorld() );
+        WorldIndex index = this.worlds[ world ];
+        if ( index == null )
+        {
+            this.worlds[ world ] = index = new WorldIndex();
+        }
+        index.add( region );
+        this.generation++;
+    }
+
+    /**
+     * Remove a region from every chunk bucket its cube overlaps.
+     *
+     * @param region the region
+     */
+    public void remove( ProtectionRegion region )
+    {
+        int world = worldIndex( region.getProtectionVector().getBlockLocation().getWorld() );
+        WorldIndex index = this.worlds[ world ];
+        if ( index == null )
+        {
+            return;
+        }
+        index.remove( region );
+        if ( index.isEmpty() )
+        {
+            this.worlds[ world ] = null;
+        }
+        this.generation++;
+    }
+
+    /**
+     * Merge an index built apart, e.g. by a loader thread, to this one.
+     *
+     * @param world the world's {@link UUID}
+     * @param index the world's index
+     */
+    public void merge( UUID world, WorldIndex index )
+    {
+        int id = worldIndex( world );
+        if ( this.worlds[ id ] == null )
+        {
+            this.worlds[ id ] = index;
+        } else
+        {
+            this.worlds[ id ].merge( index );
+        }
+        this.generation++;
+    }
+
+    /**
+     * Get the region which contains the location.
+     *
+     * @param world the world's index, see {@link #worldIndex(UUID)}
+     * @param x     the block's x
+     * @param y     the block's y
+     * @param z     the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion getRegion( int world, int x, int y, int z )
+    {
+        WorldIndex index;
+        return world < 0 || world >= this.worlds.length || ( index = this.worlds[ world ] ) == null ?
+                null : index.getRegion( x, y, z );
+    }
+
+    /**
+     * Check if the chunk may hold a region, with a single bit test.
+     *
+     * @param world  the world's index, see {@link #worldIndex(UUID)}
+     * @param chunkX the chunk's x
+     * @param chunkZ the chunk's z
+     * @return false if the chunk surely doesn't hold any region
+     */
+    public boolean mayContain( int world, int chunkX, int chunkZ )
+    {
+        WorldIndex index;
+        return world >= 0 && world < this.worlds.length && ( index = this.worlds[ world ] ) != null &&
+                index.mayContain( chunkX, chunkZ );
+    }
+
+    /**
+     * Check if any region's cube intersects the vector's cube.
+     *
+     * @param vector the vector
+     * @return true if a region intersects the cube
+     */
+    public boolean intersects( ProtectionVector vector )
+    {
+        Integer id;
+        WorldIndex index;
+        if ( ( id = this.ids.get( vector.getBlockLocation().getWorld() ) ) == null ||
+                ( index = this.worlds[ id ] ) == null )
+        {
+            return false;
+        }
+        ProtectionLocation min = vector.getMinLocation();
+        ProtectionLocation max = vector.getMaxLocation();
+        return index.intersects( min.getX(), min.getY(), min.getZ(), max.getX(), max.getY(), max.getZ() );
+    }
+
+    /**
+     * Collect, once each, the regions whose cubes intersect the given cube.
+     *
+     * @param world   the world's index, see {@link #worldIndex(UUID)}
+     * @param minX    the cube's min x
+     * @param minY    the cube's min y
+     * @param minZ    the cube's min z
+     * @param maxX    the cube's max x
+     * @param maxY    the cube's max y
+     * @param maxZ    the cube's max z
+     * @param regions the list to add the regions to
+     */
+    public void collect(
+            int world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, List< ProtectionRegion > regions
+    )
+    {
+        WorldIndex index;
+        if ( world >= 0 && world < this.worlds.length && ( index = this.worlds[ world ] ) != null )
+        {
+            index.collect( minX, minY, minZ, maxX, maxY, maxZ, regions );
+        }
+    }
+
+    /**
+     * Check if a location is inside the region's cube.
+     *
+     * @param region the region
+     * @param x      the block's x
+     * @param y      the block's y
+     * @param z      the block's z
+     * @return true if the region contains the location
+     */
+    public static boolean contains( ProtectionRegion region, int x, int y, int z )
+    {
+        ProtectionVector vector = region.getProtectionVector();
+        ProtectionLocation min = vector.getMinLocation();
+        ProtectionLocation max = vector.getMaxLocation();
+        return x >= min.getX() && x <= max.getX() &&
+                y >= min.getY() && y <= max.getY() &&
+                z >= min.getZ() && z <= max.getZ();
+    }
+
+    /**
+     * Check if a location is inside the cube of any of the regions.
+     *
+     * @param regions the regions
+     * @param x       the block's x
+     * @param y       the block's y
+     * @param z       the block's z
+     * @return true if a region contains the location
+     */
+    public static boolean contains( List< ProtectionRegion > regions, int x, int y, int z )
+    {
+        for ( int i = 0; i < regions.size(); i++ )
+        {
+            if ( contains( regions.get( i ), x, y, z ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the region whose protector block is at the location.
+     *
+     * @param world the world's index, see {@link #worldIndex(UUID)}
+     * @param x     the block's x
+     * @param y     the block's y
+     * @param z     the block's z
+     * @return the region, or null if there isn't a protector block
+     */
+    public ProtectionRegion getProtector( int world, int x, int y, int z )
+    {
+        WorldIndex index;
+        return world < 0 || world >= this.worlds.length || ( index = this.worlds[ world ] ) == null ?
+                null : index.getProtector( x, y, z );
+    }
+
+    /**
+     * Get the region which contains the location.
+     *
+     * @param world the world's {@link UUID}
+     * @param x     the block's x
+     * @param y     the block's y
+     * @param z     the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion getRegion( UUID world, int x, int y, int z )
+    {
+        Integer id;
+        return ( id = this.ids.get( world ) ) == null ? null : getRegion( id, x, y, z );
+    }
+
+    /**
+     * Check if the location is the region's protector block.
+     *
+     * @param region the region
+     * @param x      the block's x
+     * @param y      the block's y
+     * @param z      the block's z
+     * @return true if the protector block is at the location
+     */
+    public static boolean isProtector( ProtectionRegion region, int x, int y, int z )
+    {
+        ProtectionLocation block = region.getProtectionVector().getBlockLocation();
+        return block.getX() == x && block.getY() == y && block.getZ() == z;
+    }
+
+    /**
+     * Get the region which contains the location.
+     *
+     * @param location the location
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion getRegion( ProtectionLocation location )
+    {
+        return getRegion( location.getWorld(), location.getX(), location.getY(), location.getZ() );
+    }
+
+    /**
+     * Get the index's generation, it changes every time a region is added or removed.
+     *
+     * @return the generation
+     */
+    public long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Remove every region from the index.
+     */
+    public void clear()
+    {
+        Arrays.fill( this.worlds, null );
+        this.generation++;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+import me.nikosgram.oglofus.utils.LongObjectMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The chunk buckets and the protector blocks of a single world.
+ * A world's index can be built on its own thread and merged later into a {@link RegionIndex}.
+ * <p>
+ * Both are kept in {@link LongObjectMap}s under the packed chunk and block keys, and a
+ * bucket is a plain array, the regions are added and removed rarely but looked up on
+ * every protected event.
+ */
+public class WorldIndex
+{
+    private final LongObjectMap< ProtectionRegion[] > chunks = new LongObjectMap< ProtectionRegion[] >();
+    private final LongObjectMap< ProtectionRegion >   blocks = new LongObjectMap< ProtectionRegion >();
+    private       ChunkFilter                         filter = new ChunkFilter( 0 );
+
+    /**
+     * Add a region to every chunk bucket its cube overlaps.
+     *
+     * @param region the region
+     */
+    public void add( ProtectionRegion region )
+    {
+        ProtectionVector vector = region.getProtectionVector();
+        ProtectionLocation block = vector.getBlockLocation();
+        this.blocks.put( RegionIndex.blockKey( block.getX(), block.getY(), block.getZ() ), region );
+        for ( int chunkX = vector.getMinLocation().getX() >> 4; chunkX <= vector.getMaxLocation().getX() >> 4; chunkX++ )
+        {
+            for ( int chunkZ = vector.getMinLocation().getZ() >> 4; chunkZ <= vector.getMaxLocation().getZ() >> 4; chunkZ++ )
+            {
+                add( RegionIndex.chunkKey( chunkX, chunkZ ), region );
+            }
+        }
+    }
+
+    /**
+     * Remove a region from every chunk bucket its cube overlaps.
+     *
+     * @param region the region
+     */
+    public void remove( ProtectionRegion region )
+    {
+        ProtectionVector vector = region.getProtectionVector();
+        ProtectionLocation block = vector.getBlockLocation();
+        this.blocks.remove( RegionIndex.blockKey( block.getX(), block.getY(), block.getZ() ) );
+        for ( int chunkX = vector.getMinLocation().getX() >> 4; chunkX <= vector.getMaxLocation().getX() >> 4; chunkX++ )
+        {
+            for ( int chunkZ = vector.getMinLocation().getZ() >> 4; chunkZ <= vector.getMaxLocation().getZ() >> 4; chunkZ++ )
+            {
+                remove( RegionIndex.chunkKey( chunkX, chunkZ ), region );
+            }
+        }
+    }
+
+    /**
+     * Get the region which contains the location.
+     *
+     * @param x the block's x
+     * @param y the block's y
+     * @param z the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion getRegion( int x, int y, int z )
+    {
+        if ( !mayContain( x >> 4, z >> 4 ) )
+        {
+            return null;
+        }
+        ProtectionRegion region;
+        if ( ( region = getProtector( x, y, z ) ) != null )
+        {
+            return region;
+        }
+        ProtectionRegion[] bucket = this.chunks.get( RegionIndex.chunkKey( x >> 4, z >> 4 ) );
+        if ( bucket == null )
+        {
+            return null;
+        }
+        for ( int i = 0; i < bucket.length; i++ )
+        {
+            region = bucket[ i ];
+            if ( contains( region.getProtectionVector(), x, y, z ) )
+            {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the chunk may hold a region, with a single bit test.
+     *
+     * @param chunkX the chunk's x
+     * @param chunkZ the chunk's z
+     * @return false if the chunk surely doesn't hold any region
+     */
+    public boolean mayContain( int chunkX, int chunkZ )
+    {
+        return this.filter.mayContain( RegionIndex.chunkKey( chunkX, chunkZ ) );
+    }
+
+    /**
+     * Check if any region's cube intersects the given cube. Only the buckets of the chunks
+     * under the cube are read, so the cost doesn't depend on the number of regions.
+     *
+     * @param minX the cube's min x
+     * @param minY the cube's min y
+     * @param minZ the cube's min z
+     * @param maxX the cube's max x
+     * @param maxY the cube's max y
+     * @param maxZ the cube's max z
+     * @return true if a region intersects the cube
+     */
+    public boolean intersects( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+    {
+        for ( int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++ )
+        {
+            for ( int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++ )
+            {
+                long key = RegionIndex.chunkKey( chunkX, chunkZ );
+                ProtectionRegion[] bucket;
+                if ( !this.filter.mayContain( key ) || ( bucket = this.chunks.get( key ) ) == null )
+                {
+                    continue;
+                }
+                for ( int i = 0; i < bucket.length; i++ )
+                {
+                    ProtectionVector vector = bucket[ i ].getProtectionVector();
+                    ProtectionLocation min = vector.getMinLocation();
+                    ProtectionLocation max = vector.getMaxLocation();
+                    if ( minX <= max.getX() && maxX >= min.getX() &&
+                            minY <= max.getY() && maxY >= min.getY() &&
+                            minZ <= max.getZ() && maxZ >= min.getZ() )
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect, once each, the regions whose cubes intersect the given cube.
+     *
+     * @param minX    the cube's min x
+     * @param minY    the cube's min y
+     * @param minZ    the cube's min z
+     * @param maxX    the cube's max x
+     * @param maxY    the cube's max y
+     * @param maxZ    the cube's max z
+     * @param regions the list to add the regions to
+     */
+    public void collect( int minX, int minY, int minZ, int maxX, int maxY, int maxZ, List< ProtectionRegion > regions )
+    {
+        for ( int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++ )
+        {
+            for ( int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++ )
+            {
+                long key = RegionIndex.chunkKey( chunkX, chunkZ );
+                ProtectionRegion[] bucket;
+                if ( !this.filter.mayContain( key ) || ( bucket = this.chunks.get( key ) ) == null )
+                {
+                    continue;
+                }
+                for ( int i = 0; i < bucket.length; i++ )
+                {
+                    ProtectionVector vector = bucket[ i ].getProtectionVector();
+                    ProtectionLocation min = vector.getMinLocation();
+                    ProtectionLocation max = vector.getMaxLocation();
+                    if ( minX <= max.getX() && maxX >= min.getX() &&
+                            minY <= max.getY() && maxY >= min.getY() &&
+                            minZ <= max.getZ() && maxZ >= min.getZ() &&
+                            !regions.contains( bucket[ i ] ) )
+                    {
+                        regions.add( bucket[ i ] );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the region whose protector block is at the location.
+     *
+     * @param x the block's x
+     * @param y the block's y
+     * @param z the block's z
+     * @return the region, or null if there isn't a protector block
+     */
+    public ProtectionRegion getProtector( int x, int y, int z )
+    {
+        return this.blocks.get( RegionIndex.blockKey( x, y, z ) );
+    }
+
+    /**
+     * Move every region of an other index to this one.
+     *
+     * @param other the other index
+     */
+    public void merge( WorldIndex other )
+    {
+        this.blocks.putAll( other.blocks );
+        for ( int slot = 0; slot < other.chunks.capacity(); slot++ )
+        {
+            ProtectionRegion[] bucket;
+            if ( ( bucket = other.chunks.valueAt( slot ) ) != null )
+            {
+                for ( ProtectionRegion region : bucket )
+                {
+                    add( other.chunks.keyAt( slot ), region );
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return this.blocks.isEmpty();
+    }
+
+    private void add( long key, ProtectionRegion region )
+    {
+        ProtectionRegion[] bucket = this.chunks.get( key );
+        if ( bucket == null )
+        {
+            this.chunks.put( key, new ProtectionRegion[]{ region } );
+            this.filter.add( key );
+            if ( this.filter.isFull() )
+            {
+                rebuild();
+            }
+            return;
+        }
+        bucket = Arrays.copyOf( bucket, bucket.length + 1 );
+        bucket[ bucket.length - 1 ] = region;
+        this.chunks.put( key, bucket );
+    }
+
+    private void remove( long key, ProtectionRegion region )
+    {
+        ProtectionRegion[] bucket = this.chunks.get( key );
+        if ( bucket == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < bucket.length; i++ )
+        {
+            if ( bucket[ i ] == region )
+            {
+                if ( bucket.length == 1 )
+                {
+                    this.chunks.remove( key );
+                    this.filter.remove( key );
+                    if ( this.filter.isFull() )
+                    {
+                        rebuild();
+                    }
+                    return;
+                }
+                ProtectionRegion[] shrunk = new ProtectionRegion[ bucket.length - 1 ];
+                System.arraycopy( bucket, 0, shrunk, 0, i );
+                System.arraycopy( bucket, i + 1, shrunk, i, bucket.length - i - 1 );
+                this.chunks.put( key, shrunk );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build a new filter, sized for the claimed chunks and without the released ones.
+     */
+    private void rebuild()
+    {
+        ChunkFilter filter = new ChunkFilter( this.chunks.size() );
+        for ( int slot = 0; slot < this.chunks.capacity(); slot++ )
+        {
+            if ( this.chunks.valueAt( slot ) != null )
+            {
+                filter.add( this.chunks.keyAt( slot ) );
+            }
+        }
+        this.filter = filter;
+    }
+
+    private static boolean contains( ProtectionVector vector, int x, int y, int z )
+    {
+        ProtectionLocation min = vector.getMinLocation();
+        ProtectionLocation max = vector.getMaxLocation();
+        return x >= min.getX() && x <= max.getX() &&
+                y >= min.getY() && y <= max.getY() &&
+                z >= min.getZ() && z <= max.getZ();
+    }
+}
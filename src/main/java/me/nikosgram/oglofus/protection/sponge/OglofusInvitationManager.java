@@ -31,14 +31,6 @@ public class OglofusInvitationManager implements InvitationManager
     protected OglofusInvitationManager( OglofusSponge sponge )
     {
         this.sponge = sponge;
-
-        this.sponge.getConnector().createTable(
-                "oglofus_staff",
-                "id int identity(1,1) primary key",
-                "uuid varchar(36)",
-                "player varchar(36)",
-                "rank varchar(10)"
-        );
     }
 
     @Override
@@ -21,6 +21,7 @@ import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
 import me.nikosgram.oglofus.protection.api.region.ProtectionStaff;
 import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+import me.nikosgram.oglofus.protection.storage.RegionRecord;
 import org.spongepowered.api.entity.player.Player;
 import org.spongepowered.api.util.command.CommandSource;
 
@@ -38,15 +39,17 @@ public class OglofusProtectionRegion implements ProtectionRegion
     @Getter
     private       String           name;
 
-    protected OglofusProtectionRegion( UUID uuid, OglofusSponge sponge )
+    protected OglofusProtectionRegion( OglofusSponge sponge, RegionRecord record )
     {
-        this.uuid = uuid;
+        this.uuid = record.getUuid();
         this.sponge = sponge;
-        this.name = this.sponge.getConnector().getString(
-                "oglofus_regions", "uuid", this.uuid.toString(), "name"
-        ).get();
-        this.protectionStaff = new OglofusProtectionStaff( this, this.sponge );
-        this.protectionVector = new OglofusProtectionVector( this.uuid, this.sponge );
+        this.name = record.getName();
+        this.protectionStaff = new OglofusProtectionStaff( this, this.sponge, record.getOwner(), record.getStaff() );
+        this.protectionVector = new OglofusProtectionVector(
+                this.sponge, record.getRadius(), new OglofusProtectionLocation(
+                        this.sponge, record.getWorld(), record.getX(), record.getY(), record.getZ()
+                )
+        );
     }
 
     /**
@@ -62,12 +65,14 @@ public class OglofusProtectionRegion implements ProtectionRegion
         {
             return ActionResponse.Failure.setMessage( "length" );
         }
-        if ( this.sponge.getConnector().exists( "oglofus_regions", "name", name ) )
+        if ( this.sponge.getRegionManager().getRegion( name ).isPresent() )
         {
             return ActionResponse.Failure.setMessage( "exists" );
         }
+        String previous = this.name;
         this.name = name;
-        this.sponge.getConnector().update( "oglofus_regions", "uuid", this.uuid.toString(), "name", this.name );
+        ( ( OglofusRegionManager ) this.sponge.getRegionManager() ).renameRegion( this, previous );
+        this.sponge.getStorage().rename( this.uuid, this.name );
         return ActionResponse.Successful.setMessage( this.name );
     }
 
@@ -22,6 +22,7 @@ import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
 import me.nikosgram.oglofus.protection.api.region.ProtectionStaff;
+import me.nikosgram.oglofus.protection.cache.BypassCache;
 import me.nikosgram.oglofus.utils.OglofusUtils;
 import org.spongepowered.api.entity.player.Player;
 import org.spongepowered.api.entity.player.User;
@@ -34,30 +35,69 @@ import java.util.*;
 
 public class OglofusProtectionStaff implements ProtectionStaff
 {
-    private final Map< UUID, ProtectionRank > staff = new HashMap< UUID, ProtectionRank >();
+    private final Map< UUID, ProtectionRank >        staff = new HashMap< UUID, ProtectionRank >();
+    private final Map< ProtectionRank, Set< UUID > > ranks = new EnumMap< ProtectionRank, Set< UUID > >(
+            ProtectionRank.class
+    );
+    private final Map< ProtectionRank, Set< UUID > > views = new EnumMap< ProtectionRank, Set< UUID > >(
+            ProtectionRank.class
+    );
+    private final Set< UUID >                        view  = Collections.unmodifiableSet( this.staff.keySet() );
     @Getter
     private final UUID             owner;
     private final ProtectionRegion region;
     private final OglofusSponge    sponge;
 
-    protected OglofusProtectionStaff( ProtectionRegion region, OglofusSponge sponge )
+    protected OglofusProtectionStaff(
+            ProtectionRegion region, OglofusSponge sponge, UUID owner, Map< UUID, ProtectionRank > staff
+    )
     {
         this.region = region;
         this.sponge = sponge;
-        this.owner = UUID.fromString(
-                this.sponge.getConnector().getString(
-                        "oglofus_regions", "uuid", region.getUuid().toString(), "owner"
-                ).get()
-        );
-        Map< String, String > staff = this.sponge.getConnector().getStringMap(
-                "oglofus_regions", "uuid", region.getUuid().toString(), new String[]{ "player", "rank" }
-        );
-        for ( String uid : staff.keySet() )
+        this.owner = owner;
+        for ( ProtectionRank rank : ProtectionRank.values() )
         {
-            this.staff.put( UUID.fromString( uid ), ProtectionRank.valueOf( staff.get( uid ) ) );
+            Set< UUID > players = new HashSet< UUID >();
+            this.ranks.put( rank, players );
+            this.views.put( rank, Collections.unmodifiableSet( players ) );
+        }
+        for ( Map.Entry< UUID, ProtectionRank > entry : staff.entrySet() )
+        {
+            this.staff.put( entry.getKey(), entry.getValue() );
+            this.ranks.get( entry.getValue() ).add( entry.getKey() );
         }
     }
 
+    /**
+     * Get the number of the officers.
+     *
+     * @return the officers count
+     */
+    public int getOfficerCount()
+    {
+        return this.ranks.get( ProtectionRank.Officer ).size();
+    }
+
+    /**
+     * Get the number of the members.
+     *
+     * @return the members count
+     */
+    public int getMemberCount()
+    {
+        return this.ranks.get( ProtectionRank.Member ).size();
+    }
+
+    /**
+     * Get the number of the staff.
+     *
+     * @return the staff count
+     */
+    public int getStaffCount()
+    {
+        return this.staff.size();
+    }
+
     /**
      * Get the region's owner.
      *
@@ -92,7 +132,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getOfficersAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getOfficerCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : getOfficers() )
@@ -124,22 +164,15 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the officers ids.
+     * Get the officers ids. The collection is a live, unmodifiable view, not a
+     * snapshot: copy it to keep the officers of this moment.
      *
      * @return the members as {@link UUID}.
      */
     @Override
     public Collection< UUID > getOfficers()
     {
-        List< UUID > returned = new ArrayList< UUID >();
-        for ( UUID uuid : this.staff.keySet() )
-        {
-            if ( this.staff.get( uuid ).equals( ProtectionRank.Officer ) )
-            {
-                returned.add( uuid );
-            }
-        }
-        return returned;
+        return this.views.get( ProtectionRank.Officer );
     }
 
     /**
@@ -151,7 +184,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getMembersAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getMemberCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : getMembers() )
@@ -183,22 +216,15 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the members ids.
+     * Get the members ids. The collection is a live, unmodifiable view, not a
+     * snapshot: copy it to keep the members of this moment.
      *
      * @return the members as {@link UUID}.
      */
     @Override
     public Collection< UUID > getMembers()
     {
-        List< UUID > returned = new ArrayList< UUID >();
-        for ( UUID uuid : this.staff.keySet() )
-        {
-            if ( this.staff.get( uuid ).equals( ProtectionRank.Member ) )
-            {
-                returned.add( uuid );
-            }
-        }
-        return returned;
+        return this.views.get( ProtectionRank.Member );
     }
 
     /**
@@ -210,7 +236,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public < T > Collection< T > getStaffAs( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        List< T > returned = new ArrayList< T >( getStaffCount() );
         if ( OglofusUtils.equalClass( tClass, Player.class ) )
         {
             for ( UUID uuid : this.staff.keySet() )
@@ -242,14 +268,14 @@ public class OglofusProtectionStaff implements ProtectionStaff
     }
 
     /**
-     * Get the staff ids.
+     * Get the staff ids. The collection is a live, unmodifiable view, not a snapshot.
      *
      * @return staff as {@link UUID}.
      */
     @Override
     public Collection< UUID > getStaff()
     {
-        return this.staff.keySet();
+        return this.view;
     }
 
     /**
@@ -273,7 +299,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean isOfficer( UUID target )
     {
-        return this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Officer );
+        return this.ranks.get( ProtectionRank.Officer ).contains( target );
     }
 
     /**
@@ -285,7 +311,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean isMember( UUID target )
     {
-        return this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Member );
+        return this.ranks.get( ProtectionRank.Member ).contains( target );
     }
 
     /**
@@ -313,9 +339,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
         {
             return true;
         }
-        Player player;
-        return ( player = this.sponge.getServer().getPlayer( target ).orNull() ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.owner" );
+        return this.sponge.getBypassCache().hasBypass( target, BypassCache.OWNER );
     }
 
     /**
@@ -327,13 +351,11 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean hasOfficerAccess( UUID target )
     {
-        if ( this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Officer ) )
+        if ( this.ranks.get( ProtectionRank.Officer ).contains( target ) )
         {
             return true;
         }
-        Player player;
-        return ( player = this.sponge.getServer().getPlayer( target ).orNull() ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.officer" );
+        return this.sponge.getBypassCache().hasBypass( target, BypassCache.OFFICER );
     }
 
     /**
@@ -345,13 +367,11 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public boolean hasMemberAccess( UUID target )
     {
-        if ( this.staff.containsKey( target ) && this.staff.get( target ).equals( ProtectionRank.Member ) )
+        if ( this.ranks.get( ProtectionRank.Member ).contains( target ) )
         {
             return true;
         }
-        Player player;
-        return ( player = this.sponge.getServer().getPlayer( target ).orNull() ) != null &&
-                player.hasPermission( "oglofus.protection.bypass.member" );
+        return this.sponge.getBypassCache().hasBypass( target, BypassCache.MEMBER );
     }
 
     /**
@@ -363,7 +383,8 @@ public class OglofusProtectionStaff implements ProtectionStaff
     @Override
     public ProtectionRank getRank( UUID target )
     {
-        return this.staff.containsKey( target ) ? this.staff.get( target ) : ProtectionRank.None;
+        ProtectionRank rank;
+        return ( rank = this.staff.get( target ) ) == null ? ProtectionRank.None : rank;
     }
 
     /**
@@ -399,10 +420,7 @@ public class OglofusProtectionStaff implements ProtectionStaff
     {
         if ( message instanceof Text )
         {
-            for ( Player player : getStaffAs( Player.class ) )
-            {
-                player.sendMessage( ( Text ) message );
-            }
+            send( this.view, ( Text ) message );
         }
     }
 
@@ -420,20 +438,12 @@ public class OglofusProtectionStaff implements ProtectionStaff
             switch ( rank )
             {
                 case Member:
-                    for ( Player player : getMembersAs( Player.class ) )
-                    {
-                        player.sendMessage( ( Text ) message );
-                    }
-                    break;
                 case Officer:
-                    for ( Player player : getOfficersAs( Player.class ) )
-                    {
-                        player.sendMessage( ( Text ) message );
-                    }
+                    send( this.views.get( rank ), ( Text ) message );
                     break;
                 case Owner:
                     Player player;
-                    if ( ( player = getOwnerAs( Player.class ).orNull() ) != null )
+                    if ( ( player = this.sponge.getServer().getPlayer( this.owner ).orNull() ) != null )
                     {
                         player.sendMessage( ( Text ) message );
                     }
@@ -442,6 +452,24 @@ public class OglofusProtectionStaff implements ProtectionStaff
         }
     }
 
+    /**
+     * Send a message to the online players of the collection.
+     *
+     * @param targets the players
+     * @param message the message
+     */
+    private void send( Collection< UUID > targets, Text message )
+    {
+        for ( UUID uuid : targets )
+        {
+            Player player;
+            if ( ( player = this.sponge.getServer().getPlayer( uuid ).orNull() ) != null )
+            {
+                player.sendMessage( message );
+            }
+        }
+    }
+
     /**
      * Reflag this region.
      *
@@ -17,19 +17,24 @@
 package me.nikosgram.oglofus.protection.sponge;
 
 import com.flowpowered.math.vector.Vector3d;
+import com.flowpowered.math.vector.Vector3i;
 import lombok.Getter;
 import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
 import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+import me.nikosgram.oglofus.utils.BlockVisitor;
+import me.nikosgram.oglofus.utils.CuboidCollection;
 import me.nikosgram.oglofus.utils.OglofusUtils;
+import me.nikosgram.oglofus.utils.Visitor;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.world.Chunk;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
 
 public class OglofusProtectionVector implements ProtectionVector
 {
@@ -52,82 +57,129 @@ public class OglofusProtectionVector implements ProtectionVector
         this.maxLocation = new OglofusProtectionLocation( sponge, getBlockLocation() ).add( radius, radius, radius );
     }
 
-    protected OglofusProtectionVector( UUID uuid, OglofusSponge sponge )
-    {
-        this.sponge = sponge;
-        this.radius = ( int ) this.sponge.getConnector().getObject(
-                "oglofus_vectors", "uuid", uuid.toString(), "radius"
-        ).get();
-        this.blockLocation = new OglofusProtectionLocation(
-                this.sponge,
-                UUID.fromString(
-                        this.sponge.getConnector().getString(
-                                "oglofus_vectors", "uuid", uuid.toString(), "world"
-                        ).get()
-                ),
-                ( int ) sponge.getConnector().getObject( "oglofus_vectors", "uuid", uuid.toString(), "x" ).get(),
-                ( int ) sponge.getConnector().getObject( "oglofus_vectors", "uuid", uuid.toString(), "y" ).get(),
-                ( int ) sponge.getConnector().getObject( "oglofus_vectors", "uuid", uuid.toString(), "z" ).get()
-        );
-        this.minLocation = new OglofusProtectionLocation( sponge, getBlockLocation() ).add(
-                -this.radius, -this.radius, -this.radius
-        );
-        this.maxLocation = new OglofusProtectionLocation( sponge, getBlockLocation() ).add(
-                this.radius, this.radius, this.radius
-        );
-    }
-
     @Override
     public < T > Collection< T > getBlocks( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
-        for ( int location_x = this.minLocation.getX(); location_x <= this.maxLocation.getX(); location_x++ )
+        final World world = this.blockLocation.getWorldAs( World.class ).get();
+        if ( OglofusUtils.equalClass( tClass, Location.class ) )
         {
-            for ( int location_y = this.minLocation.getY(); location_y <= this.maxLocation.getY(); location_y++ )
+            return new Blocks< T >()
             {
-                for ( int location_z = this.minLocation.getZ(); location_z <= this.maxLocation.getZ(); location_z++ )
+                @Override
+                protected T create( int x, int y, int z )
                 {
-                    Location location = new Location(
-                            this.blockLocation.getWorldAs( World.class ).get(), location_x, location_y, location_z
-                    );
-                    if ( OglofusUtils.equalClass( tClass, Location.class ) )
+                    return ( T ) new Location( world, x, y, z );
+                }
+            };
+        } else
+            if ( OglofusUtils.equalClass( tClass, BlockState.class ) )
+            {
+                return new Blocks< T >()
+                {
+                    @Override
+                    protected T create( int x, int y, int z )
                     {
-                        returned.add( ( T ) location );
-                    } else
-                        if ( OglofusUtils.equalClass( tClass, BlockState.class ) )
+                        return ( T ) new Location( world, x, y, z ).getState();
+                    }
+                };
+            } else
+                if ( OglofusUtils.equalClass( tClass, Vector3d.class ) )
+                {
+                    return new Blocks< T >()
+                    {
+                        @Override
+                        protected T create( int x, int y, int z )
                         {
-                            returned.add( ( T ) location.getState() );
-                        } else
-                            if ( OglofusUtils.equalClass( tClass, Vector3d.class ) )
-                            {
-                                returned.add( ( T ) location.getPosition() );
-                            }
+                            return ( T ) new Vector3d( x, y, z );
+                        }
+                    };
                 }
-            }
-        }
-        return returned;
+        return Collections.emptyList();
+    }
+
+    /**
+     * Walk every block of the cube without creating any object.
+     *
+     * @param visitor the visitor
+     * @return false if the visitor stopped the walk
+     */
+    public boolean visitBlocks( BlockVisitor visitor )
+    {
+        return CuboidCollection.visit(
+                this.minLocation.getX(), this.minLocation.getY(), this.minLocation.getZ(),
+                this.maxLocation.getX(), this.maxLocation.getY(), this.maxLocation.getZ(),
+                visitor
+        );
     }
 
     @Override
     public < T > Collection< T > getEntities( Class< T > tClass )
     {
-        List< T > returned = new ArrayList< T >();
+        final List< T > returned = new ArrayList< T >();
         if ( OglofusUtils.equalClass( tClass, Entity.class ) )
         {
-            for ( Entity entity : this.blockLocation.getWorldAs( World.class ).get().getEntities() )
-            {
-                if ( Math.abs( this.blockLocation.getX() - entity.getLocation().getX() ) <= this.radius )
-                {
-                    if ( Math.abs( this.blockLocation.getY() - entity.getLocation().getY() ) <= this.radius )
+            visitEntities(
+                    new Visitor< Entity >()
                     {
-                        if ( Math.abs( this.blockLocation.getZ() - entity.getLocation().getZ() ) <= this.radius )
+                        @Override
+                        public boolean visit( Entity entity )
                         {
                             returned.add( ( T ) entity );
+                            return true;
                         }
                     }
+            );
+        }
+        return returned;
+    }
+
+    /**
+     * Walk the entities inside the cube. Only the loaded chunks under the cube are read,
+     * not every entity of the world.
+     *
+     * @param visitor the visitor
+     * @return false if the visitor stopped the walk
+     */
+    public boolean visitEntities( Visitor< Entity > visitor )
+    {
+        World world = this.blockLocation.getWorldAs( World.class ).get();
+        for ( int chunkX = this.minLocation.getX() >> 4; chunkX <= this.maxLocation.getX() >> 4; chunkX++ )
+        {
+            for ( int chunkZ = this.minLocation.getZ() >> 4; chunkZ <= this.maxLocation.getZ() >> 4; chunkZ++ )
+            {
+                Chunk chunk;
+                if ( ( chunk = world.getChunk( new Vector3i( chunkX, 0, chunkZ ) ).orNull() ) == null )
+                {
+                    continue;
+                }
+                for ( Entity entity : chunk.getEntities() )
+                {
+                    Location location = entity.getLocation();
+                    if ( Math.abs( this.blockLocation.getX() - location.getX() ) <= this.radius &&
+                            Math.abs( this.blockLocation.getY() - location.getY() ) <= this.radius &&
+                            Math.abs( this.blockLocation.getZ() - location.getZ() ) <= this.radius &&
+                            !visitor.visit( entity ) )
+                    {
+                        return false;
+                    }
                 }
             }
         }
-        return returned;
+        return true;
+    }
+
+    private abstract class Blocks< T > extends CuboidCollection< T >
+    {
+        private Blocks()
+        {
+            super(
+                    OglofusProtectionVector.this.minLocation.getX(),
+                    OglofusProtectionVector.this.minLocation.getY(),
+                    OglofusProtectionVector.this.minLocation.getZ(),
+                    OglofusProtectionVector.this.maxLocation.getX(),
+                    OglofusProtectionVector.this.maxLocation.getY(),
+                    OglofusProtectionVector.this.maxLocation.getZ()
+            );
+        }
     }
 }
@@ -17,47 +17,56 @@
 package me.nikosgram.oglofus.protection.sponge;
 
 import com.google.common.base.Optional;
+import lombok.Getter;
 import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.handler.Handler;
+import me.nikosgram.oglofus.protection.api.handler.ProtectionCreateHandler;
 import me.nikosgram.oglofus.protection.api.manager.RegionManager;
 import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
-import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+import me.nikosgram.oglofus.protection.index.RegionCache;
+import me.nikosgram.oglofus.protection.index.RegionIndex;
+import me.nikosgram.oglofus.protection.storage.ParallelRegionLoader;
+import me.nikosgram.oglofus.protection.storage.RegionRecord;
 
 import java.util.*;
 
 public class OglofusRegionManager implements RegionManager
 {
     private final OglofusSponge sponge;
-    private final Map< UUID, ProtectionRegion > map      = new HashMap< UUID, ProtectionRegion >();
-    private final List< Handler >               handlers = new ArrayList< Handler >();
+    // Built in the pre-initialization, on the server thread.
+    private final Thread        thread = Thread.currentThread();
+    private final Map< UUID, ProtectionRegion >   map      = new HashMap< UUID, ProtectionRegion >();
+    private final List< Handler >                 handlers = new ArrayList< Handler >();
+    private final Map< String, ProtectionRegion > names    = new HashMap< String, ProtectionRegion >();
+    private final RegionIndex                     index    = new RegionIndex();
+    @Getter
+    private final RegionCache                     cache    = new RegionCache( this.index );
 
     protected OglofusRegionManager( OglofusSponge sponge )
     {
         this.sponge = sponge;
-        this.sponge.getConnector().createTable(
-                "oglofus_regions",
-                "id int identity(1,1) primary key",
-                "uuid varchar(36)",
-                "name varchar(32)",
-                "owner varchar(36)",
-                "created date"
-        );
-        this.sponge.getConnector().createTable(
-                "oglofus_vectors",
-                "id int identity(1,1) primary key",
-                "uuid varchar(36)",
-                "radius tinyint",
-                "x int",
-                "y int",
-                "z int",
-                "world varchar(36)"
-        );
 
-        for ( String uid : this.sponge.getConnector().getStringList( "select uuid from oglofus_regions", "uuid" ) )
+        new ParallelRegionLoader()
+        {
+            @Override
+            protected ProtectionRegion create( RegionRecord record )
+            {
+                return new OglofusProtectionRegion( OglofusRegionManager.this.sponge, record );
+            }
+
+            @Override
+            protected void log( String message )
+            {
+                OglofusRegionManager.this.sponge.getLogger().info( message );
+            }
+        }.load( this.sponge.getStorage().load(), this.index, this.map );
+        for ( ProtectionRegion region : this.map.values() )
         {
-            UUID uuid = UUID.fromString( uid );
-            this.map.put( uuid, new OglofusProtectionRegion( uuid, this.sponge ) );
+            if ( region.getName() != null )
+            {
+                this.names.put( region.getName().toLowerCase(), region );
+            }
         }
     }
 
@@ -74,59 +83,77 @@ public class OglofusRegionManager implements RegionManager
     @Override
     public Optional< ProtectionRegion > getRegion( String target )
     {
-        String uid;
-        if ( ( uid = this.sponge.getConnector().getString( "oglofus_regions", "name", target, "uuid" ).orNull() ) !=
-                null )
-        {
-            UUID uuid = UUID.fromString( uid );
-            if ( this.map.containsKey( uuid ) )
-            {
-                return Optional.of( this.map.get( uuid ) );
-            }
-        }
-        return Optional.absent();
+        return Optional.fromNullable( this.names.get( target.toLowerCase() ) );
     }
 
     @Override
     public Optional< ProtectionRegion > getRegion( ProtectionLocation location )
     {
-        String uid;
-        if ( (
-                uid = this.sponge.getConnector().getString(
-                        "select uuid from oglofus_vectors where x=" +
-                                location.getX() +
-                                " and y=" +
-                                location.getY() +
-                                " and z=" +
-                                location.getZ(), "uuid"
-                ).orNull()
-        ) != null )
-        {
-            UUID uuid = UUID.fromString( uid );
-            if ( this.map.containsKey( uuid ) )
-            {
-                return Optional.of( this.map.get( uuid ) );
-            }
-        }
-        for ( ProtectionRegion region : getRegions() )
+        return Optional.fromNullable( this.index.getRegion( location ) );
+    }
+
+    /**
+     * Get the world's index, to be used with {@link #regionAt(int, int, int, int)}.
+     *
+     * @param world the world's {@link UUID}
+     * @return the world's index
+     */
+    public int worldIndex( UUID world )
+    {
+        return this.index.worldIndex( world );
+    }
+
+    /**
+     * Get the region which contains the location, without creating any object.
+     *
+     * @param world the world's index
+     * @param x     the block's x
+     * @param y     the block's y
+     * @param z     the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion regionAt( int world, int x, int y, int z )
+    {
+        return this.index.getRegion( world, x, y, z );
+    }
+
+    /**
+     * Get the region which contains the location, checking first the player's last region.
+     * The wilderness chunks are answered by the index's chunk filter alone.
+     *
+     * @param player the player's {@link UUID}
+     * @param world  the world's index
+     * @param x      the block's x
+     * @param y      the block's y
+     * @param z      the block's z
+     * @return the region, or null if the location isn't protected
+     */
+    public ProtectionRegion regionAt( UUID player, int world, int x, int y, int z )
+    {
+        if ( !this.index.mayContain( world, x >> 4, z >> 4 ) )
         {
-            ProtectionVector vector = region.getProtectionVector();
-            if ( !location.getWorld().equals( vector.getBlockLocation().getWorld() ) )
-            {
-                continue;
-            }
-            if ( Math.abs( vector.getBlockLocation().getX() - location.getX() ) <= vector.getRadius() )
-            {
-                if ( Math.abs( vector.getBlockLocation().getY() - location.getY() ) <= vector.getRadius() )
-                {
-                    if ( Math.abs( vector.getBlockLocation().getZ() - location.getZ() ) <= vector.getRadius() )
-                    {
-                        return Optional.of( region );
-                    }
-                }
-            }
+            return null;
         }
-        return Optional.absent();
+        return this.cache.getRegion( player, world, x, y, z );
+    }
+
+    /**
+     * Collect the regions whose cubes intersect the given cube.
+     *
+     * @param world   the world's index
+     * @param minX    the cube's min x
+     * @param minY    the cube's min y
+     * @param minZ    the cube's min z
+     * @param maxX    the cube's max x
+     * @param maxY    the cube's max y
+     * @param maxZ    the cube's max z
+     * @param regions the list to add the regions to
+     */
+    public void regionsIn(
+            int world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, List< ProtectionRegion > regions
+    )
+    {
+        this.index.collect( world, minX, minY, minZ, maxX, maxY, maxZ, regions );
     }
 
     @Override
@@ -135,18 +162,65 @@ public class OglofusRegionManager implements RegionManager
         return this.map.values();
     }
 
+    /**
+     * Claim the cube around the protector block, if it overlaps no other region and
+     * every create handler allows it. Runs on the server thread only, like every reader
+     * of the index.
+     *
+     * @param location the protector block's location
+     * @param owner    the owner's {@link UUID}
+     * @return the region's {@link UUID} as the message, or the reason of the failure
+     * @throws IllegalStateException if it's called from an other thread
+     */
     @Override
     public ActionResponse createProtectionRegion( ProtectionLocation location, UUID owner )
     {
-        //TODO create a new protection region!
-        return null;
+        checkThread();
+        UUID uuid = UUID.randomUUID();
+        RegionRecord record = new RegionRecord(
+                uuid, defaultName( uuid ), owner, location.getWorld(),
+                location.getX(), location.getY(), location.getZ(), this.sponge.getConfig().getNode( "protection", "radius" ).getInt( 10 )
+        );
+        ProtectionRegion region = new OglofusProtectionRegion( this.sponge, record );
+        if ( this.index.intersects( region.getProtectionVector() ) )
+        {
+            return ActionResponse.Failure.setMessage( "overlap" );
+        }
+        for ( Handler handler : this.handlers )
+        {
+            if ( handler instanceof ProtectionCreateHandler &&
+                    !( ( ProtectionCreateHandler ) handler ).execute(
+                            region.getProtectionVector(), Optional.< Object >absent()
+                    ) )
+            {
+                return ActionResponse.Failure.setMessage( "handler" );
+            }
+        }
+        registerRegion( region );
+        try
+        {
+            this.sponge.getStorage().create( record );
+        } catch ( RuntimeException e )
+        {
+            unregisterRegion( region );
+            this.sponge.getLogger().warn( "Couldn't store the region " + region.getUuid() + ".", e );
+            return ActionResponse.Failure.setMessage( "storage" );
+        }
+        return ActionResponse.Successful.setMessage( region.getUuid().toString() );
     }
 
     @Override
     public ActionResponse deleteProtectionRegion( ProtectionRegion area )
     {
-        //TODO delete a protection region!
-        return null;
+        checkThread();
+        ProtectionRegion region;
+        if ( ( region = this.map.get( area.getUuid() ) ) == null )
+        {
+            return ActionResponse.Failure.setMessage( "exists" );
+        }
+        unregisterRegion( region );
+        this.sponge.getStorage().delete( region.getUuid() );
+        return ActionResponse.Successful.setMessage( region.getName() );
     }
 
     @Override
@@ -154,4 +228,64 @@ public class OglofusRegionManager implements RegionManager
     {
         this.handlers.add( handler );
     }
+
+    /**
+     * Move a renamed region in the names' lookup.
+     *
+     * @param region   the region
+     * @param previous the region's previous name
+     */
+    protected void renameRegion( ProtectionRegion region, String previous )
+    {
+        if ( previous != null )
+        {
+            this.names.remove( previous.toLowerCase() );
+        }
+        this.names.put( region.getName().toLowerCase(), region );
+    }
+
+    /**
+     * Get a free name for a new region, the start of its {@link UUID}.
+     *
+     * @param uuid the region's {@link UUID}
+     * @return the name
+     */
+    private String defaultName( UUID uuid )
+    {
+        String hex = uuid.toString().replace( "-", "" );
+        int length = 8;
+        while ( length < hex.length() && this.names.containsKey( hex.substring( 0, length ) ) )
+        {
+            length++;
+        }
+        return hex.substring( 0, length );
+    }
+
+    private void checkThread()
+    {
+        if ( Thread.currentThread() != this.thread )
+        {
+            throw new IllegalStateException( "The regions can only be created and deleted on the server thread" );
+        }
+    }
+
+    private void registerRegion( ProtectionRegion region )
+    {
+        this.map.put( region.getUuid(), region );
+        this.index.add( region );
+        if ( region.getName() != null )
+        {
+            this.names.put( region.getName().toLowerCase(), region );
+        }
+    }
+
+    private void unregisterRegion( ProtectionRegion region )
+    {
+        this.map.remove( region.getUuid() );
+        this.index.remove( region );
+        if ( region.getName() != null )
+        {
+            this.names.remove( region.getName().toLowerCase() );
+        }
+    }
 }
@@ -19,15 +19,23 @@ package me.nikosgram.oglofus.protection.sponge;
 import com.google.inject.Inject;
 import lombok.Getter;
 import me.nikosgram.oglofus.database.DatabaseConnector;
+import me.nikosgram.oglofus.database.DatabaseDriver;
 import me.nikosgram.oglofus.database.MySQLDatabaseDriver;
+import me.nikosgram.oglofus.database.PooledDatabaseDriver;
 import me.nikosgram.oglofus.database.SQLiteDatabaseDriver;
+import me.nikosgram.oglofus.database.WriteBehindQueue;
 import me.nikosgram.oglofus.protection.api.OglofusProtection;
 import me.nikosgram.oglofus.protection.api.action.ActionResponse;
 import me.nikosgram.oglofus.protection.api.manager.InvitationManager;
-import me.nikosgram.oglofus.protection.api.manager.RegionManager;
 import me.nikosgram.oglofus.protection.api.plugin.ProtectionPlugin;
-import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
 import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.cache.BypassCache;
+import me.nikosgram.oglofus.protection.index.RegionCache;
+import me.nikosgram.oglofus.protection.index.RegionIndex;
+import me.nikosgram.oglofus.protection.storage.JournalRegionStorage;
+import me.nikosgram.oglofus.protection.storage.MappedRegionStorage;
+import me.nikosgram.oglofus.protection.storage.RegionStorage;
+import me.nikosgram.oglofus.protection.storage.SQLRegionStorage;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
@@ -38,7 +46,9 @@ import org.spongepowered.api.entity.player.Player;
 import org.spongepowered.api.event.Subscribe;
 import org.spongepowered.api.event.entity.player.PlayerBreakBlockEvent;
 import org.spongepowered.api.event.entity.player.PlayerInteractBlockEvent;
+import org.spongepowered.api.event.entity.player.PlayerJoinEvent;
 import org.spongepowered.api.event.entity.player.PlayerPlaceBlockEvent;
+import org.spongepowered.api.event.entity.player.PlayerQuitEvent;
 import org.spongepowered.api.event.state.InitializationEvent;
 import org.spongepowered.api.event.state.PreInitializationEvent;
 import org.spongepowered.api.event.state.ServerStoppedEvent;
@@ -54,12 +64,14 @@ import org.spongepowered.api.util.command.args.CommandContext;
 import org.spongepowered.api.util.command.args.GenericArguments;
 import org.spongepowered.api.util.command.spec.CommandExecutor;
 import org.spongepowered.api.util.command.spec.CommandSpec;
+import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.UUID;
 
 @Plugin( id = "OglofusProtection", name = "OglofusProtection", version = "2.0.1-R0.1-SNAPSHOT" )
 public class OglofusSponge implements ProtectionPlugin
@@ -85,9 +97,27 @@ public class OglofusSponge implements ProtectionPlugin
     @Getter
     private DatabaseConnector                                 connector;
     @Getter
-    private RegionManager                                     regionManager;
+    private RegionStorage                                     storage;
+    @Getter
+    private OglofusRegionManager                              regionManager;
     @Getter
     private InvitationManager                                 invitationManager;
+    @Getter
+    private final BypassCache                                 bypassCache = new BypassCache()
+    {
+        @Override
+        protected int resolve( UUID target )
+        {
+            Player player;
+            if ( ( player = getServer().getPlayer( target ).orNull() ) == null )
+            {
+                return -1;
+            }
+            return ( player.hasPermission( "oglofus.protection.bypass.owner" ) ? OWNER : 0 ) |
+                    ( player.hasPermission( "oglofus.protection.bypass.officer" ) ? OFFICER : 0 ) |
+                    ( player.hasPermission( "oglofus.protection.bypass.member" ) ? MEMBER : 0 );
+        }
+    };
 
     public OglofusSponge()
     {
@@ -113,9 +143,26 @@ public class OglofusSponge implements ProtectionPlugin
                 this.config.getNode( "database", "user" ).setValue( "root" );
                 this.config.getNode( "database", "pass" ).setValue( "password" );
                 this.config.getNode( "database", "data" ).setValue( "database" );
+                this.config.getNode( "database", "folder" ).setValue( "./config/OglofusProtection/regions" );
+                this.config.getNode( "database", "pool", "enabled" ).setValue( false );
+                this.config.getNode( "database", "pool", "min" ).setValue( 2 );
+                this.config.getNode( "database", "pool", "max" ).setValue( 8 );
+                this.config.getNode( "database", "pool", "validate" ).setValue( true );
+                this.config.getNode( "database", "pool", "idle" ).setValue( 600 );
+                this.config.getNode( "database", "pool", "leak" ).setValue( 30 );
+                this.config.getNode( "database", "pool", "timeout" ).setValue( 5 );
+                this.config.getNode( "database", "batch", "size" ).setValue( 500 );
+                this.config.getNode( "database", "batch", "transaction" ).setValue( true );
+                this.config.getNode( "database", "queue", "size" ).setValue( 10000 );
+                this.config.getNode( "database", "queue", "interval" ).setValue( 1000 );
+                this.config.getNode( "database", "uuid" ).setValue( "text" );
+                this.config.getNode( "database", "journal", "sync" ).setValue( 10 );
+                this.config.getNode( "database", "journal", "snapshot" ).setValue( 300 );
 
+                this.config.getNode( "protection", "bypass-refresh" ).setValue( 60 );
                 this.config.getNode( "protection", "material" ).setValue( "SPONGE" );
                 this.config.getNode( "protection", "metadata" ).setValue( "protector" );
+                this.config.getNode( "protection", "radius" ).setValue( 10 );
 
                 this.configManager.save( config );
                 this.logger.info(
@@ -128,36 +175,81 @@ public class OglofusSponge implements ProtectionPlugin
             this.logger.error( "Couldn't create default configuration file!" );
         }
 
-        if ( this.config.getNode( "database", "type" ).getString().equalsIgnoreCase( "sqlite" ) )
+        if ( this.config.getNode( "database", "type" ).getString().equalsIgnoreCase( "flatfile" ) )
         {
-            this.connector = new DatabaseConnector(
-                    new SQLiteDatabaseDriver(
-                            Paths.get(
-                                    this.config.getNode(
-                                            "database", "host"
-                                    ).getString()
-                            )
+            this.storage = new MappedRegionStorage(
+                    new File(
+                            this.config.getNode( "database", "folder" ).getString( "./config/OglofusProtection/regions" )
                     )
             );
+        } else if ( this.config.getNode( "database", "type" ).getString().equalsIgnoreCase( "journal" ) )
+        {
+            this.storage = new JournalRegionStorage(
+                    new File(
+                            this.config.getNode( "database", "folder" ).getString( "./config/OglofusProtection/regions" )
+                    ),
+                    this.config.getNode( "database", "journal", "sync" ).getLong( 10 ),
+                    this.config.getNode( "database", "journal", "snapshot" ).getLong( 300 )
+            );
         } else
         {
-            this.connector = new DatabaseConnector(
-                    new MySQLDatabaseDriver(
-                            this.config.getNode( "database", "user" ).getString(),
-                            this.config.getNode( "database", "data" ).getString(),
-                            this.config.getNode( "database", "pass" ).getString(),
-                            this.config.getNode( "database", "host" ).getString(),
-                            this.config.getNode( "database", "port" ).getInt()
-                    )
+            DatabaseDriver driver;
+            if ( this.config.getNode( "database", "type" ).getString().equalsIgnoreCase( "sqlite" ) )
+            {
+                driver = new SQLiteDatabaseDriver(
+                        Paths.get(
+                                this.config.getNode(
+                                        "database", "host"
+                                ).getString()
+                        )
+                );
+            } else
+            {
+                driver = new MySQLDatabaseDriver(
+                        this.config.getNode( "database", "user" ).getString(),
+                        this.config.getNode( "database", "data" ).getString(),
+                        this.config.getNode( "database", "pass" ).getString(),
+                        this.config.getNode( "database", "host" ).getString(),
+                        this.config.getNode( "database", "port" ).getInt()
+                );
+            }
+
+            if ( this.config.getNode( "database", "pool", "enabled" ).getBoolean( false ) )
+            {
+                driver = new PooledDatabaseDriver(
+                        driver,
+                        this.config.getNode( "database", "pool", "min" ).getInt( 2 ),
+                        this.config.getNode( "database", "pool", "max" ).getInt( 8 ),
+                        this.config.getNode( "database", "pool", "validate" ).getBoolean( true ),
+                        this.config.getNode( "database", "pool", "idle" ).getLong( 600 ) * 1000L,
+                        this.config.getNode( "database", "pool", "leak" ).getLong( 30 ) * 1000L,
+                        this.config.getNode( "database", "pool", "timeout" ).getLong( 5 ) * 1000L
+                );
+            }
+
+            this.connector = new DatabaseConnector( driver );
+            this.connector.setBatchSize( this.config.getNode( "database", "batch", "size" ).getInt( 500 ) );
+            this.connector.setBatchTransaction(
+                    this.config.getNode( "database", "batch", "transaction" ).getBoolean( true )
             );
-        }
 
-        this.connector.openConnection();
+            this.connector.openConnection();
+
+            if ( this.connector.checkConnection() )
+            {
+                this.storage = new SQLRegionStorage(
+                        this.connector,
+                        "binary".equalsIgnoreCase( this.config.getNode( "database", "uuid" ).getString( "text" ) ),
+                        this.config.getNode( "database", "queue", "size" ).getInt( 10000 ),
+                        this.config.getNode( "database", "queue", "interval" ).getLong( 1000 )
+                );
+            }
+        }
 
-        if ( this.connector.checkConnection() )
+        if ( this.storage != null )
         {
-            this.regionManager = new OglofusRegionManager( this );
             this.invitationManager = new OglofusInvitationManager( this );
+            this.regionManager = new OglofusRegionManager( this );
         }
     }
 
@@ -528,107 +620,164 @@ public class OglofusSponge implements ProtectionPlugin
                 }
         ).build();
 
+        CommandSpec stats = CommandSpec.builder().permission( "oglofus.protection.command.stats" ).description(
+                Texts.of( "Display the statistics of the region cache and the database." )
+        ).executor(
+                new CommandExecutor()
+                {
+                    @Override
+                    public CommandResult execute( CommandSource src, CommandContext args ) throws CommandException
+                    {
+                        if ( OglofusSponge.this.regionManager != null )
+                        {
+                            RegionCache cache = OglofusSponge.this.regionManager.getCache();
+                            src.sendMessage(
+                                    Texts.builder(
+                                            String.format(
+                                                    "Region cache hit ratio: %.1f%% (%d of %d lookups).",
+                                                    cache.getHitRatio() * 100, cache.getHits(), cache.getLookups()
+                                            )
+                                    ).color( TextColors.GRAY ).build()
+                            );
+                        }
+                        if ( OglofusSponge.this.connector != null && OglofusSponge.this.connector.isPooled() )
+                        {
+                            src.sendMessage(
+                                    Texts.builder(
+                                            ( ( PooledDatabaseDriver ) OglofusSponge.this.connector.getDriver() ).getStatistics()
+                                    ).color( TextColors.GRAY ).build()
+                            );
+                        } else
+                        {
+                            src.sendMessage( Texts.builder( "The database isn't pooled." ).color( TextColors.GRAY ).build() );
+                        }
+                        if ( OglofusSponge.this.storage instanceof SQLRegionStorage )
+                        {
+                            WriteBehindQueue queue = ( ( SQLRegionStorage ) OglofusSponge.this.storage ).getQueue();
+                            src.sendMessage(
+                                    Texts.builder(
+                                            "Write-behind queue: " + queue.size() + " pending, " +
+                                                    queue.getOverflowCount() + " queued past the capacity."
+                                    ).color( TextColors.GRAY ).build()
+                            );
+                        }
+                        return CommandResult.success();
+                    }
+                }
+        ).build();
+
         CommandSpec protection = CommandSpec.builder().permission( "oglofus.protection.command" ).description(
                 Texts.of( "Access to protection command." )
         ).child( info, "info", "i", "here" ).child( invite, "invite", "inv" ).child(
                 accept, "accept", "acc"
         ).child( kick, "kick" ).child( promote, "promote", "pro" ).child(
                 demote, "demote", "dem"
-        ).child( give, "give" ).child( rename, "rename", "changename", "setname" ).build();
+        ).child( give, "give" ).child( rename, "rename", "changename", "setname" ).child( stats, "stats" ).build();
 
         this.game.getCommandDispatcher().register( this, protection, "protection", "protector", "protect", "p" );
+
+        // Permission plugins don't announce their changes, so the decisions expire.
+        this.game.getSyncScheduler().runRepeatingTask(
+                this, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        OglofusSponge.this.bypassCache.clear();
+                    }
+                }, Math.max( this.config.getNode( "protection", "bypass-refresh" ).getLong( 60 ), 1L ) * 20L
+        );
     }
 
     @Subscribe
     public void onServerStopped( ServerStoppedEvent event )
     {
-        this.connector.closeConnection();
+        if ( this.regionManager != null )
+        {
+            RegionCache cache = this.regionManager.getCache();
+            this.logger.info(
+                    String.format(
+                            "Region cache hit ratio: %.1f%% (%d of %d lookups).",
+                            cache.getHitRatio() * 100, cache.getHits(), cache.getLookups()
+                    )
+            );
+        }
+        if ( this.storage != null )
+        {
+            this.storage.close();
+        }
+        if ( this.connector != null )
+        {
+            this.connector.closeConnection();
+        }
+    }
+
+    @Subscribe
+    public void invalidate( PlayerJoinEvent event )
+    {
+        this.bypassCache.invalidate( event.getEntity().getUniqueId() );
+    }
+
+    @Subscribe
+    public void invalidate( PlayerQuitEvent event )
+    {
+        this.bypassCache.invalidate( event.getEntity().getUniqueId() );
+        if ( this.regionManager != null )
+        {
+            this.regionManager.getCache().invalidate( event.getEntity().getUniqueId() );
+        }
     }
 
     @Subscribe
     public void security( PlayerInteractBlockEvent event )
     {
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                ( ( World ) event.getBlock().getExtent() ).getUniqueId(),
-                event.getBlock().getBlockX(),
-                event.getBlock().getBlockY(),
-                event.getBlock().getBlockZ()
-        );
-        ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( denied( event.getEntity().getUniqueId(), event.getBlock() ) )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getEntity().getUniqueId() ) )
-            {
-                event.setCancelled( true );
-            } else
-            {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getEntity().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
-            }
+            event.setCancelled( true );
         }
     }
 
     @Subscribe
     public void security( PlayerPlaceBlockEvent event )
     {
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                ( ( World ) event.getBlock().getExtent() ).getUniqueId(),
-                event.getBlock().getBlockX(),
-                event.getBlock().getBlockY(),
-                event.getBlock().getBlockZ()
-        );
-        ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( denied( event.getEntity().getUniqueId(), event.getBlock() ) )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getEntity().getUniqueId() ) )
-            {
-                event.setCancelled( true );
-            } else
-            {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getEntity().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
-            }
+            event.setCancelled( true );
         }
     }
 
     @Subscribe
     public void security( PlayerBreakBlockEvent event )
     {
-        ProtectionLocation location = new OglofusProtectionLocation(
-                this,
-                ( ( World ) event.getBlock().getExtent() ).getUniqueId(),
-                event.getBlock().getBlockX(),
-                event.getBlock().getBlockY(),
-                event.getBlock().getBlockZ()
-        );
+        if ( denied( event.getEntity().getUniqueId(), event.getBlock() ) )
+        {
+            event.setCancelled( true );
+        }
+    }
+
+    /**
+     * Check if a player may not change the block.
+     *
+     * @param player the player
+     * @param block  the block's location
+     * @return true if the event must be cancelled
+     */
+    private boolean denied( UUID player, Location block )
+    {
+        int x = block.getBlockX();
+        int y = block.getBlockY();
+        int z = block.getBlockZ();
         ProtectionRegion region;
-        if ( ( region = getRegionManager().getRegion( location ).orNull() ) != null )
+        if ( ( region = this.regionManager.regionAt(
+                player, this.regionManager.worldIndex( ( ( World ) block.getExtent() ).getUniqueId() ), x, y, z
+        ) ) == null )
         {
-            if ( !region.getProtectionStaff().hasMemberAccess( event.getEntity().getUniqueId() ) )
-            {
-                event.setCancelled( true );
-            } else
-            {
-                if ( region.getProtectionVector().getBlockLocation().equals( location ) )
-                {
-                    if ( !region.getProtectionStaff().hasOwnerAccess( event.getEntity().getUniqueId() ) )
-                    {
-                        event.setCancelled( true );
-                    }
-                }
-            }
+            return false;
+        }
+        if ( !region.getProtectionStaff().hasMemberAccess( player ) )
+        {
+            return true;
         }
+        return RegionIndex.isProtector( region, x, y, z ) && !region.getProtectionStaff().hasOwnerAccess( player );
     }
 }
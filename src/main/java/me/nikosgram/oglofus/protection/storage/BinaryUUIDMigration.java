@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import com.google.common.base.Optional;
+import me.nikosgram.oglofus.database.DatabaseBatch;
+import me.nikosgram.oglofus.database.DatabaseConnector;
+import me.nikosgram.oglofus.database.DatabaseDialect;
+import me.nikosgram.oglofus.database.RowHandler;
+import me.nikosgram.oglofus.database.TableSchema;
+import me.nikosgram.oglofus.database.UUIDCodec;
+
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Moves a table whose {@link UUID} columns are text to binary ones.
+ * <p>
+ * The text table is renamed to "_migrating", the binary table is created and filled
+ * in one transaction, then the text table is kept as "_legacy", or "_legacy_2" and
+ * so on if that name is taken. A migration which stopped half-way is started over
+ * from the "_migrating" table on the next start. Rows with a malformed {@link UUID}
+ * or a duplicate unique key aren't moved, and are counted in the log.
+ * <p>
+ * The migration runs while the storage starts, not online next to the server: the
+ * regions are loaded from these tables before anything can be protected, so the load
+ * waits for the copy either way, and copying in the background would mean writing
+ * every change to both tables until it's done. It's a one-off copy of a few hundred
+ * thousand rows at most.
+ * <p>
+ * The legacy tables keep their space until they're dropped by hand, so right after
+ * the migration the database is bigger than before. On SQLite the file only shrinks
+ * once they're dropped and the database is vacuumed.
+ */
+public class BinaryUUIDMigration
+{
+    private static final Logger logger = Logger.getLogger( BinaryUUIDMigration.class.getName() );
+
+    private final DatabaseConnector connector;
+    private final DatabaseDialect   dialect;
+
+    public BinaryUUIDMigration( DatabaseConnector connector )
+    {
+        this.connector = connector;
+        this.dialect = connector.getDialect();
+    }
+
+    /**
+     * Check if the type of a column is binary.
+     *
+     * @param type the column's type
+     * @return true if the type is binary
+     */
+    public static boolean isBinary( String type )
+    {
+        String upper = type.toUpperCase();
+        return upper.contains( "BLOB" ) || upper.contains( "BINARY" );
+    }
+
+    /**
+     * Create the binary table, moving the rows of the text table to it.
+     *
+     * @param schema the binary table
+     * @param uuids  the {@link UUID} columns
+     */
+    public void migrate( TableSchema schema, String... uuids )
+    {
+        String table = schema.getName();
+        String migrating = table + "_migrating";
+        if ( !this.connector.getColumnType( migrating, "uuid" ).isPresent() )
+        {
+            Optional< String > type = this.connector.getColumnType( table, "uuid" );
+            if ( !type.isPresent() || isBinary( type.get() ) )
+            {
+                this.connector.createTable( schema );
+                return;
+            }
+            Set< String > indexes = this.connector.getIndexes( table );
+            this.connector.execute( "ALTER TABLE " + table + " RENAME TO " + migrating );
+            for ( TableSchema.Index index : schema.getIndexes() )
+            {
+                if ( indexes.contains( index.getName().toLowerCase() ) )
+                {
+                    this.connector.execute( this.dialect.dropIndex( migrating, index.getName() ) );
+                }
+            }
+        }
+        this.connector.createTable( schema );
+        this.connector.executeUpdate( "DELETE FROM " + table );
+
+        List< Object[] > rows = unique( migrating, schema, read( migrating, schema.getColumns(), Arrays.asList( uuids ) ) );
+        StringBuilder sql = new StringBuilder( this.dialect.insertIgnore( table ) ).append( " (" );
+        StringBuilder values = new StringBuilder();
+        for ( String column : schema.getColumns() )
+        {
+            if ( values.length() > 0 )
+            {
+                sql.append( ", " );
+                values.append( ", " );
+            }
+            sql.append( column );
+            values.append( '?' );
+        }
+        sql.append( ") VALUES (" ).append( values ).append( ")" );
+
+        DatabaseBatch batch = this.connector.batch( this.connector.getBatchSize(), true );
+        for ( Object[] row : rows )
+        {
+            batch.add( sql.toString(), row );
+        }
+        int written = batch.execute();
+        String legacy = table + "_legacy";
+        for ( int i = 2; this.connector.getColumnType( legacy, "uuid" ).isPresent(); i++ )
+        {
+            legacy = table + "_legacy_" + i;
+        }
+        this.connector.execute( "ALTER TABLE " + migrating + " RENAME TO " + legacy );
+        logger.info(
+                String.format(
+                        "Moved %d of %d rows of %s to binary UUIDs in %d ms (%.0f rows/s), the old table is kept " +
+                                "as %s. Drop it once the regions are checked, to free its space.",
+                        written,
+                        rows.size(),
+                        table,
+                        batch.getElapsedMillis(),
+                        batch.getRowsPerSecond(),
+                        legacy
+                )
+        );
+    }
+
+    /**
+     * Drop the rows which repeat a unique key of an earlier row, as the insert would.
+     */
+    private List< Object[] > unique( String table, TableSchema schema, List< Object[] > rows )
+    {
+        List< int[] > keys = new ArrayList< int[] >();
+        for ( TableSchema.Index index : schema.getIndexes() )
+        {
+            if ( index.isUnique() )
+            {
+                int[] positions = new int[ index.getColumns().size() ];
+                for ( int i = 0; i < positions.length; i++ )
+                {
+                    positions[ i ] = schema.getColumns().indexOf( index.getColumns().get( i ) );
+                }
+                keys.add( positions );
+            }
+        }
+        List< Set< List< Object > > > seen = new ArrayList< Set< List< Object > > >();
+        for ( int i = 0; i < keys.size(); i++ )
+        {
+            seen.add( new HashSet< List< Object > >() );
+        }
+        List< Object[] > returned = new ArrayList< Object[] >( rows.size() );
+        int duplicates = 0;
+        for ( Object[] row : rows )
+        {
+            List< List< Object > > values = new ArrayList< List< Object > >( keys.size() );
+            boolean duplicate = false;
+            for ( int i = 0; i < keys.size(); i++ )
+            {
+                List< Object > value = key( row, keys.get( i ) );
+                values.add( value );
+                duplicate |= value != null && seen.get( i ).contains( value );
+            }
+            if ( duplicate )
+            {
+                duplicates++;
+                continue;
+            }
+            for ( int i = 0; i < keys.size(); i++ )
+            {
+                if ( values.get( i ) != null )
+                {
+                    seen.get( i ).add( values.get( i ) );
+                }
+            }
+            returned.add( row );
+        }
+        if ( duplicates > 0 )
+        {
+            logger.warning( duplicates + " rows of " + table + " repeat a unique key and aren't moved." );
+        }
+        return returned;
+    }
+
+    /**
+     * Get the values of a key, comparable by their content, or null if one is null,
+     * since SQL doesn't count nulls as equal.
+     */
+    private static List< Object > key( Object[] row, int[] positions )
+    {
+        List< Object > key = new ArrayList< Object >( positions.length );
+        for ( int position : positions )
+        {
+            Object value = row[ position ];
+            if ( value == null )
+            {
+                return null;
+            }
+            key.add( value instanceof byte[] ? ByteBuffer.wrap( ( byte[] ) value ) : value );
+        }
+        return key;
+    }
+
+    private List< Object[] > read( String table, final List< String > columns, final List< String > uuids )
+    {
+        final List< Object[] > rows = new ArrayList< Object[] >();
+        final int[] skipped = new int[ 1 ];
+        this.connector.query(
+                "SELECT * FROM " + table, new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        Object[] row = new Object[ columns.size() ];
+                        for ( int i = 0; i < row.length; i++ )
+                        {
+                            String column = columns.get( i );
+                            if ( !uuids.contains( column ) )
+                            {
+                                row[ i ] = result.getObject( column );
+                                continue;
+                            }
+                            String value = result.getString( column );
+                            try
+                            {
+                                row[ i ] = value == null ? null : UUIDCodec.encode( UUID.fromString( value ) );
+                            } catch ( IllegalArgumentException e )
+                            {
+                                skipped[ 0 ]++;
+                                return;
+                            }
+                        }
+                        rows.add( row );
+                    }
+                }
+        );
+        if ( skipped[ 0 ] > 0 )
+        {
+            logger.warning( skipped[ 0 ] + " rows of " + table + " have a malformed UUID and aren't moved." );
+        }
+        return rows;
+    }
+}
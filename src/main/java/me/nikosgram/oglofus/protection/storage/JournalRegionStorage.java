@@ -0,0 +1,820 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * {@link RegionStorage} on a write-ahead log and a snapshot.
+ * <p>
+ * Every change is appended to the log as a record with its length and CRC32, and
+ * applied to a copy of the state held in memory. The log is forced to the disk in
+ * groups, every few milliseconds; creating a region waits for its group, so an
+ * acknowledged claim survives a crash. The other changes don't wait. If the log
+ * can't be forced the storage fails: the waiting creations and every later change
+ * throw, since the disk can't be trusted with them any more.
+ * <p>
+ * A compactor writes the state to snapshot.tmp and moves it over snapshot.dat in one
+ * atomic step, then deletes the logs it covers. The logs are numbered: snapshot.dat
+ * names the first log which isn't in it. On start the snapshot is read, or snapshot.tmp
+ * if a crash left only that, the logs after it are replayed, and a torn record at the
+ * end of the last log is cut off.
+ */
+public class JournalRegionStorage implements RegionStorage
+{
+    private static final Logger logger = Logger.getLogger( JournalRegionStorage.class.getName() );
+
+    private static final int  MAGIC   = 0x4F474A4C;
+    private static final long ROTATE  = 16L * 1024L * 1024L;
+    private static final long AWAIT   = 30000L;
+    private static final byte CREATE  = 1;
+    private static final byte DELETE  = 2;
+    private static final byte RENAME  = 3;
+    private static final byte RANK    = 4;
+    private static final byte UNSTAFF = 5;
+
+    private final File                      folder;
+    private final Map< UUID, RegionRecord > records = new HashMap< UUID, RegionRecord >();
+    private final Object                    synced  = new Object();
+    private final ScheduledExecutorService  executor;
+    private       RandomAccessFile          log;
+    private       long                      generation;
+    private       long                      size;
+    private       long                      written;
+    private volatile long                   forced;
+    private volatile IOException            failure;
+    private       boolean                   compacting;
+    private       boolean                   closed;
+
+    /**
+     * Open the storage, reading the snapshot and replaying the logs.
+     *
+     * @param folder   where the snapshot and the logs are
+     * @param sync     the milliseconds between the forces of the log
+     * @param snapshot the seconds between the snapshots
+     */
+    public JournalRegionStorage( File folder, long sync, long snapshot )
+    {
+        this.folder = folder;
+        if ( !folder.isDirectory() && !folder.mkdirs() )
+        {
+            throw new RuntimeException( "Couldn't create the folder " + folder );
+        }
+        try
+        {
+            recover();
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        this.executor = Executors.newScheduledThreadPool(
+                2, new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Oglofus-Journal" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                }
+        );
+        this.executor.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        force();
+                    }
+                }, sync, Math.max( sync, 1L ), TimeUnit.MILLISECONDS
+        );
+        this.executor.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        compact();
+                    }
+                }, snapshot, Math.max( snapshot, 1L ), TimeUnit.SECONDS
+        );
+    }
+
+    @Override
+    public synchronized Collection< RegionRecord > load()
+    {
+        return new ArrayList< RegionRecord >( this.records.values() );
+    }
+
+    /**
+     * Create a region, returning once the change is on the disk.
+     *
+     * @param record the region
+     * @throws RuntimeException if the change couldn't be forced to the disk
+     */
+    @Override
+    public void create( RegionRecord record )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeByte( CREATE );
+            writeRecord( out, record );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        await( append( bytes.toByteArray() ) );
+    }
+
+    @Override
+    public void delete( UUID region )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeByte( DELETE );
+            writeUUID( out, region );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        append( bytes.toByteArray() );
+    }
+
+    @Override
+    public void rename( UUID region, String name )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeByte( RENAME );
+            writeUUID( out, region );
+            out.writeUTF( name );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        append( bytes.toByteArray() );
+    }
+
+    @Override
+    public void setRank( UUID region, UUID player, ProtectionRank rank )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeByte( RANK );
+            writeUUID( out, region );
+            writeUUID( out, player );
+            out.writeByte( rank.ordinal() );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        append( bytes.toByteArray() );
+    }
+
+    @Override
+    public void removeStaff( UUID region, UUID player )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeByte( UNSTAFF );
+            writeUUID( out, region );
+            writeUUID( out, player );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        append( bytes.toByteArray() );
+    }
+
+    @Override
+    public void flush()
+    {
+        force();
+    }
+
+    @Override
+    public void close()
+    {
+        this.executor.shutdown();
+        try
+        {
+            this.executor.awaitTermination( 30, TimeUnit.SECONDS );
+        } catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        force();
+        compact();
+        synchronized ( this )
+        {
+            if ( this.closed )
+            {
+                return;
+            }
+            this.closed = true;
+            try
+            {
+                this.log.getChannel().force( false );
+                this.log.close();
+            } catch ( IOException e )
+            {
+                fail( e );
+                throw new RuntimeException( e );
+            }
+            synchronized ( this.synced )
+            {
+                this.forced = this.written;
+                this.synced.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Append a change to the log and apply it to the state.
+     *
+     * @param payload the change
+     * @return the bytes ever appended after the change, to wait for
+     */
+    private synchronized long append( byte[] payload )
+    {
+        if ( this.closed )
+        {
+            throw new IllegalStateException( "The region storage is closed" );
+        }
+        if ( this.failure != null )
+        {
+            throw new RuntimeException( "The region log failed", this.failure );
+        }
+        CRC32 crc = new CRC32();
+        crc.update( payload );
+        ByteBuffer buffer = ByteBuffer.allocate( 8 + payload.length );
+        buffer.putInt( payload.length ).putInt( ( int ) crc.getValue() ).put( payload ).flip();
+        try
+        {
+            FileChannel channel = this.log.getChannel();
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer );
+            }
+            apply( new DataInputStream( new ByteArrayInputStream( payload ) ) );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        this.size += 8 + payload.length;
+        this.written += 8 + payload.length;
+        return this.written;
+    }
+
+    /**
+     * Wait until the log is forced past the bytes, at most {@link #AWAIT} milliseconds.
+     *
+     * @param position the bytes ever appended
+     * @throws RuntimeException if the log failed, or wasn't forced in time
+     */
+    private void await( long position )
+    {
+        long deadline = System.currentTimeMillis() + AWAIT;
+        synchronized ( this.synced )
+        {
+            while ( this.forced < position )
+            {
+                if ( this.failure != null )
+                {
+                    throw new RuntimeException( "The region log failed", this.failure );
+                }
+                long left = deadline - System.currentTimeMillis();
+                if ( left <= 0L )
+                {
+                    throw new RuntimeException( "The region log wasn't forced in " + AWAIT + " ms" );
+                }
+                try
+                {
+                    this.synced.wait( Math.min( left, 1000L ) );
+                } catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException( e );
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the storage failed and release the creations waiting for the log.
+     *
+     * @param cause the failure
+     */
+    private void fail( IOException cause )
+    {
+        synchronized ( this.synced )
+        {
+            if ( this.failure == null )
+            {
+                this.failure = cause;
+            }
+            this.synced.notifyAll();
+        }
+    }
+
+    /**
+     * Force the log to the disk, releasing the creations waiting for it.
+     */
+    private void force()
+    {
+        FileChannel channel;
+        long position;
+        boolean rotate;
+        synchronized ( this )
+        {
+            if ( this.forced >= this.written )
+            {
+                return;
+            }
+            channel = this.log.getChannel();
+            position = this.written;
+            rotate = this.size > ROTATE;
+        }
+        try
+        {
+            channel.force( false );
+        } catch ( ClosedChannelException e )
+        {
+            // The compactor rotated the log, forcing it first.
+            return;
+        } catch ( IOException e )
+        {
+            logger.log( Level.SEVERE, "Couldn't force the region log, no more changes are accepted.", e );
+            fail( e );
+            return;
+        }
+        synchronized ( this.synced )
+        {
+            this.forced = Math.max( this.forced, position );
+            this.synced.notifyAll();
+        }
+        if ( rotate )
+        {
+            try
+            {
+                this.executor.execute(
+                        new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                compact();
+                            }
+                        }
+                );
+            } catch ( RejectedExecutionException ignored )
+            {
+            }
+        }
+    }
+
+    /**
+     * Write the state to a new snapshot and delete the logs in it.
+     */
+    private void compact()
+    {
+        Collection< RegionRecord > copy;
+        long covered;
+        synchronized ( this )
+        {
+            if ( this.compacting || this.size == 0 )
+            {
+                return;
+            }
+            this.compacting = true;
+            copy = new ArrayList< RegionRecord >( this.records.size() );
+            for ( RegionRecord record : this.records.values() )
+            {
+                copy.add( copyOf( record, record.getName() ) );
+            }
+            try
+            {
+                // The creations waiting for the old log are released by forcing it.
+                this.log.getChannel().force( false );
+                this.log.close();
+                covered = ++this.generation;
+                this.log = openLog( this.generation );
+            } catch ( IOException e )
+            {
+                this.compacting = false;
+                logger.log( Level.SEVERE, "Couldn't rotate the region log, no more changes are accepted.", e );
+                fail( e );
+                return;
+            }
+            this.size = 0L;
+            synchronized ( this.synced )
+            {
+                this.forced = this.written;
+                this.synced.notifyAll();
+            }
+        }
+        try
+        {
+            long started = System.nanoTime();
+            writeSnapshot( copy, covered );
+            for ( File file : logs() )
+            {
+                if ( generationOf( file ) < covered && !file.delete() )
+                {
+                    logger.warning( "Couldn't delete " + file );
+                }
+            }
+            logger.fine(
+                    "Wrote a snapshot of " + copy.size() + " regions in " +
+                            ( System.nanoTime() - started ) / 1000000L + " ms."
+            );
+        } catch ( IOException e )
+        {
+            logger.log( Level.SEVERE, "Couldn't write the region snapshot.", e );
+        } finally
+        {
+            synchronized ( this )
+            {
+                this.compacting = false;
+            }
+        }
+    }
+
+    private void recover() throws IOException
+    {
+        File snapshot = new File( this.folder, "snapshot.dat" );
+        File temporary = new File( this.folder, "snapshot.tmp" );
+        long first = 0L;
+        if ( snapshot.exists() )
+        {
+            first = readSnapshot( snapshot );
+        } else if ( temporary.exists() )
+        {
+            // Either a complete snapshot whose move didn't finish, or the first snapshot
+            // torn while written, when no log has been deleted yet.
+            try
+            {
+                first = readSnapshot( temporary );
+                replaceSnapshot( temporary, snapshot );
+                logger.warning( "Recovered the region snapshot from " + temporary + "." );
+            } catch ( IOException e )
+            {
+                this.records.clear();
+                logger.warning( "Ignored the torn region snapshot " + temporary + " (" + e + ")." );
+            }
+        }
+        this.generation = first;
+        File[] logs = logs();
+        for ( int i = 0; i < logs.length; i++ )
+        {
+            long generation = generationOf( logs[ i ] );
+            if ( generation < first )
+            {
+                continue;
+            }
+            replay( logs[ i ], i == logs.length - 1 );
+            this.generation = generation;
+        }
+        this.log = openLog( this.generation );
+        this.size = this.log.length();
+    }
+
+    private void replay( File file, boolean last ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        long good = 0L;
+        int replayed = 0;
+        try
+        {
+            while ( true )
+            {
+                int length;
+                try
+                {
+                    length = in.readInt();
+                } catch ( EOFException e )
+                {
+                    break;
+                }
+                int checksum = in.readInt();
+                if ( length < 0 || length > ROTATE )
+                {
+                    throw new IOException( "bad length " + length );
+                }
+                byte[] payload = new byte[ length ];
+                in.readFully( payload );
+                CRC32 crc = new CRC32();
+                crc.update( payload );
+                if ( ( int ) crc.getValue() != checksum )
+                {
+                    throw new IOException( "bad checksum" );
+                }
+                apply( new DataInputStream( new ByteArrayInputStream( payload ) ) );
+                good += 8 + length;
+                replayed++;
+            }
+        } catch ( IOException e )
+        {
+            if ( !last )
+            {
+                throw new IOException( file + " is corrupt after " + replayed + " changes", e );
+            }
+            logger.warning( "Cut off a torn change at the end of " + file + " (" + e + ")." );
+            RandomAccessFile truncate = new RandomAccessFile( file, "rw" );
+            try
+            {
+                truncate.setLength( good );
+            } finally
+            {
+                truncate.close();
+            }
+        } finally
+        {
+            in.close();
+        }
+        logger.info( "Replayed " + replayed + " changes from " + file.getName() + "." );
+    }
+
+    private void apply( DataInput in ) throws IOException
+    {
+        byte type = in.readByte();
+        if ( type == CREATE )
+        {
+            RegionRecord record = readRecord( in );
+            this.records.put( record.getUuid(), record );
+            return;
+        }
+        UUID region = readUUID( in );
+        if ( type == DELETE )
+        {
+            this.records.remove( region );
+            return;
+        }
+        RegionRecord record = this.records.get( region );
+        if ( type == RENAME )
+        {
+            String name = in.readUTF();
+            if ( record != null )
+            {
+                this.records.put( region, copyOf( record, name ) );
+            }
+        } else if ( type == RANK )
+        {
+            UUID player = readUUID( in );
+            ProtectionRank rank = ProtectionRank.values()[ in.readByte() ];
+            if ( record != null )
+            {
+                record.getStaff().put( player, rank );
+            }
+        } else if ( type == UNSTAFF )
+        {
+            UUID player = readUUID( in );
+            if ( record != null )
+            {
+                record.getStaff().remove( player );
+            }
+        } else
+        {
+            throw new IOException( "unknown change " + type );
+        }
+    }
+
+    private long readSnapshot( File file ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( file + " isn't a region snapshot" );
+            }
+            long covered = in.readLong();
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                RegionRecord record = readRecord( in );
+                this.records.put( record.getUuid(), record );
+            }
+            return covered;
+        } finally
+        {
+            in.close();
+        }
+    }
+
+    private void writeSnapshot( Collection< RegionRecord > copy, long covered ) throws IOException
+    {
+        File temporary = new File( this.folder, "snapshot.tmp" );
+        FileOutputStream stream = new FileOutputStream( temporary );
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( stream ) );
+            out.writeInt( MAGIC );
+            out.writeLong( covered );
+            out.writeInt( copy.size() );
+            for ( RegionRecord record : copy )
+            {
+                writeRecord( out, record );
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally
+        {
+            stream.close();
+        }
+        replaceSnapshot( temporary, new File( this.folder, "snapshot.dat" ) );
+    }
+
+    private void replaceSnapshot( File temporary, File snapshot ) throws IOException
+    {
+        Files.move(
+                temporary.toPath(),
+                snapshot.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+        );
+        // The move is durable once the folder is forced, before the logs are deleted.
+        try
+        {
+            FileChannel channel = FileChannel.open( this.folder.toPath(), StandardOpenOption.READ );
+            try
+            {
+                channel.force( true );
+            } finally
+            {
+                channel.close();
+            }
+        } catch ( IOException e )
+        {
+            // Some systems, Windows among them, can't open a folder to force it.
+            logger.log( Level.FINE, "Couldn't force the folder " + this.folder + ".", e );
+        }
+    }
+
+    private RandomAccessFile openLog( long generation ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( new File( this.folder, "log-" + generation + ".wal" ), "rw" );
+        file.seek( file.length() );
+        return file;
+    }
+
+    private File[] logs()
+    {
+        File[] logs = this.folder.listFiles();
+        if ( logs == null )
+        {
+            return new File[ 0 ];
+        }
+        ArrayList< File > returned = new ArrayList< File >();
+        for ( File file : logs )
+        {
+            if ( file.getName().startsWith( "log-" ) && file.getName().endsWith( ".wal" ) )
+            {
+                returned.add( file );
+            }
+        }
+        File[] sorted = returned.toArray( new File[ returned.size() ] );
+        Arrays.sort(
+                sorted, new Comparator< File >()
+                {
+                    @Override
+                    public int compare( File first, File second )
+                    {
+                        return Long.compare( generationOf( first ), generationOf( second ) );
+                    }
+                }
+        );
+        return sorted;
+    }
+
+    private static long generationOf( File file )
+    {
+        String name = file.getName();
+        return Long.parseLong( name.substring( 4, name.length() - 4 ) );
+    }
+
+    private static RegionRecord copyOf( RegionRecord record, String name )
+    {
+        RegionRecord copy = new RegionRecord(
+                record.getUuid(),
+                name,
+                record.getOwner(),
+                record.getWorld(),
+                record.getX(),
+                record.getY(),
+                record.getZ(),
+                record.getRadius()
+        );
+        copy.getStaff().putAll( record.getStaff() );
+        return copy;
+    }
+
+    private static void writeRecord( DataOutput out, RegionRecord record ) throws IOException
+    {
+        writeUUID( out, record.getUuid() );
+        out.writeBoolean( record.getName() != null );
+        if ( record.getName() != null )
+        {
+            out.writeUTF( record.getName() );
+        }
+        writeUUID( out, record.getOwner() );
+        writeUUID( out, record.getWorld() );
+        out.writeInt( record.getX() );
+        out.writeInt( record.getY() );
+        out.writeInt( record.getZ() );
+        out.writeInt( record.getRadius() );
+        out.writeInt( record.getStaff().size() );
+        for ( Map.Entry< UUID, ProtectionRank > entry : record.getStaff().entrySet() )
+        {
+            writeUUID( out, entry.getKey() );
+            out.writeByte( entry.getValue().ordinal() );
+        }
+    }
+
+    private static RegionRecord readRecord( DataInput in ) throws IOException
+    {
+        UUID uuid = readUUID( in );
+        String name = in.readBoolean() ? in.readUTF() : null;
+        RegionRecord record = new RegionRecord(
+                uuid, name, readUUID( in ), readUUID( in ), in.readInt(), in.readInt(), in.readInt(), in.readInt()
+        );
+        ProtectionRank[] ranks = ProtectionRank.values();
+        for ( int i = in.readInt(); i > 0; i-- )
+        {
+            record.getStaff().put( readUUID( in ), ranks[ in.readByte() ] );
+        }
+        return record;
+    }
+
+    private static void writeUUID( DataOutput out, UUID uuid ) throws IOException
+    {
+        out.writeLong( uuid.getMostSignificantBits() );
+        out.writeLong( uuid.getLeastSignificantBits() );
+    }
+
+    private static UUID readUUID( DataInput in ) throws IOException
+    {
+        return new UUID( in.readLong(), in.readLong() );
+    }
+}
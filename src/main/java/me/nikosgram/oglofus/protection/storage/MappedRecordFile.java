@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped file of fixed-size records.
+ * <p>
+ * The file starts with a header, followed by the slots. The first byte of a slot
+ * tells if it is used; a free slot keeps the index of the next free one, so freed
+ * slots are reused before the file grows. New slots are appended at the end and
+ * the mapping grows in steps, remapping the file.
+ * <p>
+ * The file isn't thread-safe.
+ */
+public class MappedRecordFile
+{
+    public static final int HEADER = 32;
+
+    private static final int MAGIC   = 0x4F474C46;
+    private static final int VERSION = 1;
+    private static final int GROWTH  = 4096;
+    private static final int NONE    = -1;
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+    private final int              size;
+    private       MappedByteBuffer buffer;
+    private       int              slots;
+    private       int              free;
+
+    /**
+     * Open the file, creating it if it doesn't exist.
+     *
+     * @param path the file
+     * @param size the size of a record, its first byte included
+     * @throws IOException if the file can't be opened, or has another record size
+     */
+    public MappedRecordFile( File path, int size ) throws IOException
+    {
+        this.size = size;
+        this.file = new RandomAccessFile( path, "rw" );
+        this.channel = this.file.getChannel();
+        if ( this.channel.size() < HEADER )
+        {
+            this.slots = 0;
+            this.free = NONE;
+            map( GROWTH );
+            this.buffer.putInt( 0, MAGIC );
+            this.buffer.putInt( 4, VERSION );
+            this.buffer.putInt( 8, size );
+            writeHeader();
+        } else
+        {
+            map( ( int ) ( ( this.channel.size() - HEADER ) / size ) );
+            if ( this.buffer.getInt( 0 ) != MAGIC || this.buffer.getInt( 8 ) != size )
+            {
+                close();
+                throw new IOException( path + " isn't a record file of " + size + " bytes" );
+            }
+            this.slots = this.buffer.getInt( 12 );
+            this.free = this.buffer.getInt( 16 );
+        }
+    }
+
+    /**
+     * Get the offset of a slot, where its first byte is.
+     *
+     * @param slot the slot
+     * @return the offset
+     */
+    public int offset( int slot )
+    {
+        return HEADER + slot * this.size;
+    }
+
+    /**
+     * Get the mapped buffer, to read and write the records with absolute offsets.
+     * The buffer changes when the file grows.
+     *
+     * @return the buffer
+     */
+    public MappedByteBuffer buffer()
+    {
+        return this.buffer;
+    }
+
+    /**
+     * Get the number of slots, used or free, ever allocated.
+     *
+     * @return the slots
+     */
+    public int slots()
+    {
+        return this.slots;
+    }
+
+    /**
+     * Check if a slot holds a record.
+     *
+     * @param slot the slot
+     * @return true if the slot is used
+     */
+    public boolean isUsed( int slot )
+    {
+        return this.buffer.get( offset( slot ) ) != 0;
+    }
+
+    /**
+     * Take a free slot, or append one.
+     *
+     * @return the slot, marked as used
+     * @throws IOException if the file can't grow
+     */
+    public int allocate() throws IOException
+    {
+        int slot;
+        if ( this.free != NONE )
+        {
+            slot = this.free;
+            this.free = this.buffer.getInt( offset( slot ) + 1 );
+        } else
+        {
+            slot = this.slots++;
+            if ( offset( this.slots ) > this.buffer.capacity() )
+            {
+                map( this.slots + Math.max( GROWTH, this.slots / 2 ) );
+            }
+        }
+        this.buffer.put( offset( slot ), ( byte ) 1 );
+        writeHeader();
+        return slot;
+    }
+
+    /**
+     * Free a slot for reuse.
+     *
+     * @param slot the slot
+     */
+    public void release( int slot )
+    {
+        int offset = offset( slot );
+        this.buffer.put( offset, ( byte ) 0 );
+        this.buffer.putInt( offset + 1, this.free );
+        this.free = slot;
+        writeHeader();
+    }
+
+    /**
+     * Write the mapped changes to the disk.
+     */
+    public void force()
+    {
+        this.buffer.force();
+    }
+
+    public void close() throws IOException
+    {
+        if ( this.buffer != null )
+        {
+            this.buffer.force();
+        }
+        this.channel.close();
+        this.file.close();
+    }
+
+    private void map( int slots ) throws IOException
+    {
+        this.buffer = this.channel.map( FileChannel.MapMode.READ_WRITE, 0, offset( slots ) );
+    }
+
+    private void writeHeader()
+    {
+        this.buffer.putInt( 12, this.slots );
+        this.buffer.putInt( 16, this.free );
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link RegionStorage} on two memory-mapped files of fixed-size records, regions.dat
+ * with the regions and their vectors and staff.dat with the staff. Loading is one
+ * sequential scan of each file and every change is a write to the mapped memory.
+ * <p>
+ * A region record holds the uuid, owner and world as two longs each, the x, y, z and
+ * radius, and the name as up to {@link #NAME} chars. A staff record holds the region,
+ * the player and the ordinal of the rank.
+ */
+public class MappedRegionStorage implements RegionStorage
+{
+    public static final int NAME = 36;
+
+    private static final int REGION = 144;
+    private static final int STAFF  = 40;
+
+    private final MappedRecordFile                  regionFile;
+    private final MappedRecordFile                  staffFile;
+    private final Map< UUID, Integer >              regions = new HashMap< UUID, Integer >();
+    private final Map< UUID, Map< UUID, Integer > > staff   = new HashMap< UUID, Map< UUID, Integer > >();
+
+    public MappedRegionStorage( File folder )
+    {
+        if ( !folder.isDirectory() && !folder.mkdirs() )
+        {
+            throw new RuntimeException( "Couldn't create the folder " + folder );
+        }
+        try
+        {
+            this.regionFile = new MappedRecordFile( new File( folder, "regions.dat" ), REGION );
+            this.staffFile = new MappedRecordFile( new File( folder, "staff.dat" ), STAFF );
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    @Override
+    public synchronized Collection< RegionRecord > load()
+    {
+        Map< UUID, RegionRecord > records = new HashMap< UUID, RegionRecord >();
+        this.regions.clear();
+        this.staff.clear();
+
+        MappedByteBuffer buffer = this.regionFile.buffer();
+        for ( int slot = 0; slot < this.regionFile.slots(); slot++ )
+        {
+            if ( !this.regionFile.isUsed( slot ) )
+            {
+                continue;
+            }
+            int offset = this.regionFile.offset( slot );
+            int length = buffer.get( offset + 63 );
+            char[] name = new char[ Math.max( length, 0 ) ];
+            for ( int i = 0; i < name.length; i++ )
+            {
+                name[ i ] = buffer.getChar( offset + 64 + i * 2 );
+            }
+            RegionRecord record = new RegionRecord(
+                    readUUID( buffer, offset + 1 ),
+                    length < 0 ? null : new String( name ),
+                    readUUID( buffer, offset + 17 ),
+                    readUUID( buffer, offset + 33 ),
+                    buffer.getInt( offset + 49 ),
+                    buffer.getInt( offset + 53 ),
+                    buffer.getInt( offset + 57 ),
+                    buffer.getShort( offset + 61 )
+            );
+            records.put( record.getUuid(), record );
+            this.regions.put( record.getUuid(), slot );
+        }
+
+        ProtectionRank[] ranks = ProtectionRank.values();
+        List< Integer > orphans = new ArrayList< Integer >();
+        buffer = this.staffFile.buffer();
+        for ( int slot = 0; slot < this.staffFile.slots(); slot++ )
+        {
+            if ( !this.staffFile.isUsed( slot ) )
+            {
+                continue;
+            }
+            int offset = this.staffFile.offset( slot );
+            UUID region = readUUID( buffer, offset + 1 );
+            RegionRecord record = records.get( region );
+            if ( record == null )
+            {
+                orphans.add( slot );
+                continue;
+            }
+            UUID player = readUUID( buffer, offset + 17 );
+            record.getStaff().put( player, ranks[ buffer.get( offset + 33 ) ] );
+            staffOf( region ).put( player, slot );
+        }
+        for ( int slot : orphans )
+        {
+            this.staffFile.release( slot );
+        }
+        return records.values();
+    }
+
+    @Override
+    public synchronized void create( RegionRecord record )
+    {
+        Integer slot = this.regions.get( record.getUuid() );
+        try
+        {
+            if ( slot == null )
+            {
+                this.regions.put( record.getUuid(), slot = this.regionFile.allocate() );
+            }
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        MappedByteBuffer buffer = this.regionFile.buffer();
+        int offset = this.regionFile.offset( slot );
+        writeUUID( buffer, offset + 1, record.getUuid() );
+        writeUUID( buffer, offset + 17, record.getOwner() );
+        writeUUID( buffer, offset + 33, record.getWorld() );
+        buffer.putInt( offset + 49, record.getX() );
+        buffer.putInt( offset + 53, record.getY() );
+        buffer.putInt( offset + 57, record.getZ() );
+        buffer.putShort( offset + 61, ( short ) record.getRadius() );
+        writeName( buffer, offset, record.getName() );
+        for ( Map.Entry< UUID, ProtectionRank > entry : record.getStaff().entrySet() )
+        {
+            setRank( record.getUuid(), entry.getKey(), entry.getValue() );
+        }
+    }
+
+    @Override
+    public synchronized void delete( UUID region )
+    {
+        Integer slot = this.regions.remove( region );
+        if ( slot != null )
+        {
+            this.regionFile.release( slot );
+        }
+        Map< UUID, Integer > players = this.staff.remove( region );
+        if ( players != null )
+        {
+            for ( int staffSlot : players.values() )
+            {
+                this.staffFile.release( staffSlot );
+            }
+        }
+    }
+
+    @Override
+    public synchronized void rename( UUID region, String name )
+    {
+        Integer slot = this.regions.get( region );
+        if ( slot != null )
+        {
+            writeName( this.regionFile.buffer(), this.regionFile.offset( slot ), name );
+        }
+    }
+
+    @Override
+    public synchronized void setRank( UUID region, UUID player, ProtectionRank rank )
+    {
+        if ( !this.regions.containsKey( region ) )
+        {
+            return;
+        }
+        Map< UUID, Integer > players = staffOf( region );
+        Integer slot = players.get( player );
+        try
+        {
+            if ( slot == null )
+            {
+                players.put( player, slot = this.staffFile.allocate() );
+            }
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        MappedByteBuffer buffer = this.staffFile.buffer();
+        int offset = this.staffFile.offset( slot );
+        writeUUID( buffer, offset + 1, region );
+        writeUUID( buffer, offset + 17, player );
+        buffer.put( offset + 33, ( byte ) rank.ordinal() );
+    }
+
+    @Override
+    public synchronized void removeStaff( UUID region, UUID player )
+    {
+        Map< UUID, Integer > players = this.staff.get( region );
+        if ( players == null )
+        {
+            return;
+        }
+        Integer slot = players.remove( player );
+        if ( slot != null )
+        {
+            this.staffFile.release( slot );
+        }
+    }
+
+    @Override
+    public synchronized void flush()
+    {
+        this.regionFile.force();
+        this.staffFile.force();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            this.regionFile.close();
+            this.staffFile.close();
+        } catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private Map< UUID, Integer > staffOf( UUID region )
+    {
+        Map< UUID, Integer > players = this.staff.get( region );
+        if ( players == null )
+        {
+            this.staff.put( region, players = new HashMap< UUID, Integer >() );
+        }
+        return players;
+    }
+
+    private static void writeName( MappedByteBuffer buffer, int offset, String name )
+    {
+        if ( name == null )
+        {
+            buffer.put( offset + 63, ( byte ) -1 );
+            return;
+        }
+        int length = Math.min( name.length(), NAME );
+        buffer.put( offset + 63, ( byte ) length );
+        for ( int i = 0; i < length; i++ )
+        {
+            buffer.putChar( offset + 64 + i * 2, name.charAt( i ) );
+        }
+    }
+
+    private static UUID readUUID( MappedByteBuffer buffer, int offset )
+    {
+        return new UUID( buffer.getLong( offset ), buffer.getLong( offset + 8 ) );
+    }
+
+    private static void writeUUID( MappedByteBuffer buffer, int offset, UUID uuid )
+    {
+        buffer.putLong( offset, uuid.getMostSignificantBits() );
+        buffer.putLong( offset + 8, uuid.getLeastSignificantBits() );
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.index.RegionIndex;
+import me.nikosgram.oglofus.protection.index.WorldIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the regions and their index buckets on a fork-join pool.
+ * The records are partitioned by world, every world is built on its own and
+ * the results are merged on the calling thread.
+ */
+public abstract class ParallelRegionLoader
+{
+    private static final int THRESHOLD = 256;
+
+    private final AtomicInteger loaded = new AtomicInteger();
+    private       int           total;
+    private       int           step;
+    private       long          start;
+
+    /**
+     * Create the platform's region from the record.
+     * It's called from the pool's threads, so it must not touch the server.
+     *
+     * @param record the record
+     * @return the region
+     */
+    protected abstract ProtectionRegion create( RegionRecord record );
+
+    /**
+     * Log a progress message.
+     *
+     * @param message the message
+     */
+    protected abstract void log( String message );
+
+    /**
+     * Build the regions and put them to the index and the map.
+     *
+     * @param records the records
+     * @param index   the index
+     * @param regions the regions by {@link UUID}
+     */
+    public void load( Collection< RegionRecord > records, RegionIndex index, Map< UUID, ProtectionRegion > regions )
+    {
+        this.start = System.nanoTime();
+        this.total = records.size();
+        this.step = Math.max( this.total / 10, THRESHOLD );
+        this.loaded.set( 0 );
+
+        Map< UUID, List< RegionRecord > > partitions = new HashMap< UUID, List< RegionRecord > >();
+        for ( RegionRecord record : records )
+        {
+            List< RegionRecord > partition = partitions.get( record.getWorld() );
+            if ( partition == null )
+            {
+                partitions.put( record.getWorld(), partition = new ArrayList< RegionRecord >() );
+            }
+            partition.add( record );
+        }
+
+        final List< WorldTask > tasks = new ArrayList< WorldTask >();
+        for ( Map.Entry< UUID, List< RegionRecord > > entry : partitions.entrySet() )
+        {
+            tasks.add( new WorldTask( entry.getKey(), entry.getValue() ) );
+        }
+
+        ForkJoinPool pool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+        try
+        {
+            pool.invoke(
+                    new RecursiveAction()
+                    {
+                        @Override
+                        protected void compute()
+                        {
+                            ForkJoinTask.invokeAll( tasks );
+                        }
+                    }
+            );
+        } finally
+        {
+            pool.shutdown();
+        }
+
+        for ( WorldTask task : tasks )
+        {
+            index.merge( task.world, task.getRawResult() );
+            for ( ProtectionRegion region : task.regions )
+            {
+                regions.put( region.getUuid(), region );
+            }
+        }
+
+        long elapsed = Math.max( System.nanoTime() - this.start, 1L );
+        log(
+                String.format(
+                        "Loaded %d regions from %d worlds in %d ms (%.0f regions/sec, %d threads).",
+                        this.total,
+                        partitions.size(),
+                        elapsed / 1000000L,
+                        this.total * 1000000000D / elapsed,
+                        pool.getParallelism()
+                )
+        );
+    }
+
+    private void progress()
+    {
+        int done = this.loaded.incrementAndGet();
+        if ( done % this.step == 0 && done < this.total )
+        {
+            long elapsed = Math.max( System.nanoTime() - this.start, 1L );
+            log(
+                    String.format(
+                            "Loading regions... %d/%d (%d%%, %.0f regions/sec)",
+                            done,
+                            this.total,
+                            done * 100L / this.total,
+                            done * 1000000000D / elapsed
+                    )
+            );
+        }
+    }
+
+    private class WorldTask extends RecursiveTask< WorldIndex >
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final UUID                 world;
+        private final List< RegionRecord > records;
+        private final ProtectionRegion[]   regions;
+
+        private WorldTask( UUID world, List< RegionRecord > records )
+        {
+            this.world = world;
+            this.records = records;
+            this.regions = new ProtectionRegion[ records.size() ];
+        }
+
+        @Override
+        protected WorldIndex compute()
+        {
+            new BuildTask( this.records, this.regions, 0, this.regions.length ).invoke();
+            WorldIndex index = new WorldIndex();
+            for ( ProtectionRegion region : this.regions )
+            {
+                index.add( region );
+            }
+            return index;
+        }
+    }
+
+    private class BuildTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List< RegionRecord > records;
+        private final ProtectionRegion[]   regions;
+        private final int                  from;
+        private final int                  to;
+
+        private BuildTask( List< RegionRecord > records, ProtectionRegion[] regions, int from, int to )
+        {
+            this.records = records;
+            this.regions = regions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( this.to - this.from <= THRESHOLD )
+            {
+                for ( int i = this.from; i < this.to; i++ )
+                {
+                    this.regions[ i ] = create( this.records.get( i ) );
+                    progress();
+                }
+                return;
+            }
+            int middle = ( this.from + this.to ) >>> 1;
+            ForkJoinTask.invokeAll(
+                    new BuildTask( this.records, this.regions, this.from, middle ),
+                    new BuildTask( this.records, this.regions, middle, this.to )
+            );
+        }
+    }
+}
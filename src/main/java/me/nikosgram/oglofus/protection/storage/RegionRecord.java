@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import lombok.Getter;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The persisted state of a protection region, as it is read from the storage.
+ */
+public class RegionRecord
+{
+    @Getter
+    private final UUID                        uuid;
+    @Getter
+    private final String                      name;
+    @Getter
+    private final UUID                        owner;
+    @Getter
+    private final UUID                        world;
+    @Getter
+    private final int                         x;
+    @Getter
+    private final int                         y;
+    @Getter
+    private final int                         z;
+    @Getter
+    private final int                         radius;
+    @Getter
+    private final Map< UUID, ProtectionRank > staff = new HashMap< UUID, ProtectionRank >();
+
+    public RegionRecord( UUID uuid, String name, UUID owner, UUID world, int x, int y, int z, int radius )
+    {
+        this.uuid = uuid;
+        this.name = name;
+        this.owner = owner;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.radius = radius;
+    }
+}
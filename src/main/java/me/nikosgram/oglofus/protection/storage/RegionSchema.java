@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.database.TableSchema;
+
+/**
+ * The tables of the protection regions, shared by every platform.
+ */
+public final class RegionSchema
+{
+    /**
+     * The type of the {@link java.util.UUID} columns stored as text.
+     */
+    public static final String TEXT = "varchar(36)";
+
+    private RegionSchema()
+    {
+    }
+
+    /**
+     * Get the regions' table.
+     *
+     * @param uuid the type of the {@link java.util.UUID} columns
+     * @return the table
+     */
+    public static TableSchema regions( String uuid )
+    {
+        return new TableSchema( "oglofus_regions" )
+                .column( "uuid", uuid )
+                .column( "name", "varchar(32)" )
+                .column( "owner", uuid )
+                .column( "created", "date" )
+                .unique( "uuid" )
+                .index( "name" )
+                .index( "owner" );
+    }
+
+    /**
+     * Get the vectors' table.
+     *
+     * @param uuid the type of the {@link java.util.UUID} columns
+     * @return the table
+     */
+    public static TableSchema vectors( String uuid )
+    {
+        return new TableSchema( "oglofus_vectors" )
+                .column( "uuid", uuid )
+                .column( "radius", "tinyint" )
+                .column( "x", "int" )
+                .column( "y", "int" )
+                .column( "z", "int" )
+                .column( "world", uuid )
+                .unique( "uuid" )
+                .unique( "world", "x", "y", "z" );
+    }
+
+    /**
+     * Get the staff's table.
+     *
+     * @param uuid the type of the {@link java.util.UUID} columns
+     * @return the table
+     */
+    public static TableSchema staff( String uuid )
+    {
+        return new TableSchema( "oglofus_staff" )
+                .column( "uuid", uuid )
+                .column( "player", uuid )
+                .column( "rank", "varchar(10)" )
+                .unique( "uuid", "player" )
+                .index( "player" );
+    }
+}
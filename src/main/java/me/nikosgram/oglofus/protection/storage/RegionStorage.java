@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Where the protection regions are persisted.
+ */
+public interface RegionStorage
+{
+    /**
+     * Load every region with its vector and staff.
+     *
+     * @return the regions
+     */
+    Collection< RegionRecord > load();
+
+    /**
+     * Persist a new region with its vector.
+     *
+     * @param record the region
+     */
+    void create( RegionRecord record );
+
+    /**
+     * Delete a region with its vector and staff.
+     *
+     * @param region the region's {@link UUID}
+     */
+    void delete( UUID region );
+
+    /**
+     * Change the name of a region.
+     *
+     * @param region the region's {@link UUID}
+     * @param name   the new name
+     */
+    void rename( UUID region, String name );
+
+    /**
+     * Change the rank of a player in a region.
+     *
+     * @param region the region's {@link UUID}
+     * @param player the player's {@link UUID}
+     * @param rank   the rank
+     */
+    void setRank( UUID region, UUID player, ProtectionRank rank );
+
+    /**
+     * Remove a player from the staff of a region.
+     *
+     * @param region the region's {@link UUID}
+     * @param player the player's {@link UUID}
+     */
+    void removeStaff( UUID region, UUID player );
+
+    /**
+     * Write every pending change.
+     */
+    void flush();
+
+    /**
+     * Write every pending change and release the storage.
+     */
+    void close();
+}
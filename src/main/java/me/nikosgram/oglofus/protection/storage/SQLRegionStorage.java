@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.database.DatabaseConnector;
+import me.nikosgram.oglofus.database.RowHandler;
+import me.nikosgram.oglofus.database.UUIDCodec;
+import me.nikosgram.oglofus.database.WriteBehindQueue;
+import me.nikosgram.oglofus.database.WriteBehindQueue.Statement;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * {@link RegionStorage} on top of the oglofus_regions, oglofus_vectors and oglofus_staff tables.
+ * The changes are written behind, from a {@link WriteBehindQueue}, one pending change per row.
+ * The {@link UUID}s are stored either as text or as 16 bytes.
+ */
+public class SQLRegionStorage implements RegionStorage
+{
+    private static final Logger logger = Logger.getLogger( SQLRegionStorage.class.getName() );
+
+    private final DatabaseConnector connector;
+    private final WriteBehindQueue  queue;
+    private final boolean           binary;
+
+    public SQLRegionStorage( DatabaseConnector connector, boolean binary, int capacity, long interval )
+    {
+        this.connector = connector;
+        this.binary = createTables( binary );
+        this.queue = new WriteBehindQueue( connector, capacity, interval );
+    }
+
+    /**
+     * Create the tables, moving the text {@link UUID}s to binary ones if asked.
+     * Binary tables are never moved back to text.
+     *
+     * @param binary true to store the {@link UUID}s as 16 bytes
+     * @return true if the tables store the {@link UUID}s as 16 bytes
+     */
+    private boolean createTables( boolean binary )
+    {
+        String type = this.connector.getColumnType( "oglofus_regions", "uuid" ).orNull();
+        if ( !binary && type != null && BinaryUUIDMigration.isBinary( type ) )
+        {
+            logger.warning( "The tables already store binary UUIDs, they can't be moved back to text." );
+            binary = true;
+        }
+        if ( !binary )
+        {
+            this.connector.createTable( RegionSchema.regions( RegionSchema.TEXT ) );
+            this.connector.createTable( RegionSchema.vectors( RegionSchema.TEXT ) );
+            this.connector.createTable( RegionSchema.staff( RegionSchema.TEXT ) );
+            return false;
+        }
+        String uuid = this.connector.getDialect().binary( 16 );
+        BinaryUUIDMigration migration = new BinaryUUIDMigration( this.connector );
+        migration.migrate( RegionSchema.regions( uuid ), "uuid", "owner" );
+        migration.migrate( RegionSchema.vectors( uuid ), "uuid", "world" );
+        migration.migrate( RegionSchema.staff( uuid ), "uuid", "player" );
+        return true;
+    }
+
+    private Object value( UUID uuid )
+    {
+        return this.binary ? UUIDCodec.encode( uuid ) : uuid.toString();
+    }
+
+    private UUID read( ResultSet result, String column ) throws SQLException
+    {
+        if ( this.binary )
+        {
+            return UUIDCodec.decode( result.getBytes( column ) );
+        }
+        return UUID.fromString( result.getString( column ) );
+    }
+
+    /**
+     * Load every region with two set-based queries, one joining the regions with
+     * their vectors and one reading the whole staff table.
+     *
+     * @return the regions
+     */
+    @Override
+    public Collection< RegionRecord > load()
+    {
+        final Map< UUID, RegionRecord > records = new HashMap< UUID, RegionRecord >();
+        this.connector.query(
+                "SELECT r.uuid AS uuid, r.name AS name, r.owner AS owner, " +
+                        "v.radius AS radius, v.world AS world, v.x AS x, v.y AS y, v.z AS z " +
+                        "FROM oglofus_regions r INNER JOIN oglofus_vectors v ON v.uuid = r.uuid",
+                new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        String name = result.getString( "name" );
+                        RegionRecord record = new RegionRecord(
+                                read( result, "uuid" ),
+                                name == null ? null : DatabaseConnector.decodeString( name ),
+                                read( result, "owner" ),
+                                read( result, "world" ),
+                                result.getInt( "x" ),
+                                result.getInt( "y" ),
+                                result.getInt( "z" ),
+                                result.getInt( "radius" )
+                        );
+                        records.put( record.getUuid(), record );
+                    }
+                }
+        );
+        this.connector.query(
+                "SELECT uuid, player, rank FROM oglofus_staff", new RowHandler()
+                {
+                    @Override
+                    public void handle( ResultSet result ) throws SQLException
+                    {
+                        RegionRecord record = records.get( read( result, "uuid" ) );
+                        if ( record != null )
+                        {
+                            record.getStaff().put(
+                                    read( result, "player" ),
+                                    ProtectionRank.valueOf( result.getString( "rank" ) )
+                            );
+                        }
+                    }
+                }
+        );
+        return records.values();
+    }
+
+    @Override
+    public void create( RegionRecord record )
+    {
+        Object uuid = value( record.getUuid() );
+        this.queue.enqueue(
+                record.getUuid().toString(), "region",
+                new Statement(
+                        "INSERT INTO oglofus_regions (uuid, name, owner, created) VALUES (?, ?, ?, ?)",
+                        uuid,
+                        record.getName() == null ? null : DatabaseConnector.encodeValue( record.getName() ),
+                        value( record.getOwner() ),
+                        new Date( System.currentTimeMillis() )
+                ),
+                new Statement(
+                        "INSERT INTO oglofus_vectors (uuid, radius, x, y, z, world) VALUES (?, ?, ?, ?, ?, ?)",
+                        uuid,
+                        record.getRadius(),
+                        record.getX(),
+                        record.getY(),
+                        record.getZ(),
+                        value( record.getWorld() )
+                )
+        );
+        for ( Map.Entry< UUID, ProtectionRank > entry : record.getStaff().entrySet() )
+        {
+            setRank( record.getUuid(), entry.getKey(), entry.getValue() );
+        }
+    }
+
+    /**
+     * Delete a region. Its pending changes are dropped first, so nothing
+     * written behind outlives the region.
+     *
+     * @param region the region's {@link UUID}
+     */
+    @Override
+    public void delete( UUID region )
+    {
+        Object uuid = value( region );
+        this.queue.cancel( region.toString() );
+        this.queue.enqueue(
+                region.toString(), "region",
+                new Statement( "DELETE FROM oglofus_regions WHERE uuid = ?", uuid ),
+                new Statement( "DELETE FROM oglofus_vectors WHERE uuid = ?", uuid ),
+                new Statement( "DELETE FROM oglofus_staff WHERE uuid = ?", uuid )
+        );
+    }
+
+    @Override
+    public void rename( UUID region, String name )
+    {
+        Object uuid = value( region );
+        this.queue.enqueue(
+                region.toString(), "name",
+                new Statement(
+                        "UPDATE oglofus_regions SET name = ? WHERE uuid = ?",
+                        DatabaseConnector.encodeValue( name ),
+                        uuid
+                )
+        );
+    }
+
+    @Override
+    public void setRank( UUID region, UUID player, ProtectionRank rank )
+    {
+        Object uuid = value( region );
+        this.queue.enqueue(
+                region.toString(), "staff:" + player,
+                new Statement( "DELETE FROM oglofus_staff WHERE uuid = ? AND player = ?", uuid, value( player ) ),
+                new Statement(
+                        "INSERT INTO oglofus_staff (uuid, player, rank) VALUES (?, ?, ?)",
+                        uuid,
+                        value( player ),
+                        rank.name()
+                )
+        );
+    }
+
+    @Override
+    public void removeStaff( UUID region, UUID player )
+    {
+        Object uuid = value( region );
+        this.queue.enqueue(
+                region.toString(), "staff:" + player,
+                new Statement( "DELETE FROM oglofus_staff WHERE uuid = ? AND player = ?", uuid, value( player ) )
+        );
+    }
+
+    @Override
+    public void flush()
+    {
+        this.queue.flush();
+    }
+
+    @Override
+    public void close()
+    {
+        this.queue.close();
+    }
+
+    public WriteBehindQueue getQueue()
+    {
+        return this.queue;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.utils;
+
+/**
+ * A callback which receives the coordinates of every block of a cube, without any object per block.
+ */
+public interface BlockVisitor
+{
+    /**
+     * Visit a block.
+     *
+     * @param x the block's x
+     * @param y the block's y
+     * @param z the block's z
+     * @return false to stop the walk
+     */
+    boolean visit( int x, int y, int z );
+}
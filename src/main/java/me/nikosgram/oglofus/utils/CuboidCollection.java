@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.utils;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only, lazy collection of the blocks of a cube. Nothing is stored, the iterator
+ * walks the coordinates x, then y, then z, and creates every element only when it's asked
+ * for, so the memory stays the same for every size of cube.
+ *
+ * @param <T> the elements' type
+ */
+public abstract class CuboidCollection< T > extends AbstractCollection< T >
+{
+    private final int minX, minY, minZ;
+    private final int maxX, maxY, maxZ;
+
+    public CuboidCollection( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+    {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Walk every block of a cube, in the order of the collection's iterator.
+     *
+     * @param visitor the visitor
+     * @return false if the visitor stopped the walk
+     */
+    public static boolean visit( int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockVisitor visitor )
+    {
+        for ( int x = minX; x <= maxX; x++ )
+        {
+            for ( int y = minY; y <= maxY; y++ )
+            {
+                for ( int z = minZ; z <= maxZ; z++ )
+                {
+                    if ( !visitor.visit( x, y, z ) )
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the element of a block.
+     *
+     * @param x the block's x
+     * @param y the block's y
+     * @param z the block's z
+     * @return the element
+     */
+    protected abstract T create( int x, int y, int z );
+
+    @Override
+    public int size()
+    {
+        long size = ( long ) ( this.maxX - this.minX + 1 ) * ( this.maxY - this.minY + 1 ) * ( this.maxZ - this.minZ + 1 );
+        return this.maxX < this.minX || this.maxY < this.minY || this.maxZ < this.minZ ? 0 :
+                ( int ) Math.min( size, Integer.MAX_VALUE );
+    }
+
+    @Override
+    public Iterator< T > iterator()
+    {
+        return new Iterator< T >()
+        {
+            private int x = isEmpty() ? CuboidCollection.this.maxX + 1 : CuboidCollection.this.minX;
+            private int y = CuboidCollection.this.minY;
+            private int z = CuboidCollection.this.minZ;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.x <= CuboidCollection.this.maxX;
+            }
+
+            @Override
+            public T next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+                T next = create( this.x, this.y, this.z );
+                if ( this.z++ == CuboidCollection.this.maxZ )
+                {
+                    this.z = CuboidCollection.this.minZ;
+                    if ( this.y++ == CuboidCollection.this.maxY )
+                    {
+                        this.y = CuboidCollection.this.minY;
+                        this.x++;
+                    }
+                }
+                return next;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
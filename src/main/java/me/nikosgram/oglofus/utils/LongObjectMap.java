@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nikosgram.oglofus.utils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to objects, with open addressing and linear probing.
+ * The keys are never boxed, so a lookup creates no garbage, and an entry takes a long and
+ * a reference instead of a node, a {@link Long} and a reference.
+ * <p>
+ * The map doesn't accept null values. The slots can be walked with {@link #capacity()},
+ * {@link #keyAt(int)} and {@link #valueAt(int)}. The map is not thread-safe.
+ *
+ * @param <V> the values' type
+ */
+public class LongObjectMap< V >
+{
+    private long[]   keys;
+    private Object[] values;
+    private int      size;
+    private int      mask;
+
+    public LongObjectMap()
+    {
+        this( 16 );
+    }
+
+    /**
+     * Create a map which holds the given number of entries without growing.
+     *
+     * @param expected the expected entries
+     */
+    public LongObjectMap( int expected )
+    {
+        int capacity = Integer.highestOneBit( Math.max( expected, 4 ) * 2 - 1 ) << 1;
+        this.keys = new long[ capacity ];
+        this.values = new Object[ capacity ];
+        this.mask = capacity - 1;
+    }
+
+    private static int hash( long key )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return ( int ) ( hash ^ ( hash >>> 32 ) );
+    }
+
+    /**
+     * Get the value of the key.
+     *
+     * @param key the key
+     * @return the value, or null if the key isn't mapped
+     */
+    @SuppressWarnings( "unchecked" )
+    public V get( long key )
+    {
+        for ( int slot = hash( key ) & this.mask; ; slot = ( slot + 1 ) & this.mask )
+        {
+            Object value;
+            if ( ( value = this.values[ slot ] ) == null )
+            {
+                return null;
+            }
+            if ( this.keys[ slot ] == key )
+            {
+                return ( V ) value;
+            }
+        }
+    }
+
+    /**
+     * Map the key to the value.
+     *
+     * @param key   the key
+     * @param value the value, not null
+     * @return the previous value, or null if the key wasn't mapped
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( long key, V value )
+    {
+        OglofusUtils.notNull( value, "The value is null" );
+        int slot = hash( key ) & this.mask;
+        for ( ; this.values[ slot ] != null; slot = ( slot + 1 ) & this.mask )
+        {
+            if ( this.keys[ slot ] == key )
+            {
+                V previous = ( V ) this.values[ slot ];
+                this.values[ slot ] = value;
+                return previous;
+            }
+        }
+        this.keys[ slot ] = key;
+        this.values[ slot ] = value;
+        if ( ++this.size * 2 > this.keys.length )
+        {
+            resize( this.keys.length * 2 );
+        }
+        return null;
+    }
+
+    /**
+     * Remove the key.
+     *
+     * @param key the key
+     * @return the removed value, or null if the key wasn't mapped
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( long key )
+    {
+        for ( int slot = hash( key ) & this.mask; this.values[ slot ] != null; slot = ( slot + 1 ) & this.mask )
+        {
+            if ( this.keys[ slot ] == key )
+            {
+                V previous = ( V ) this.values[ slot ];
+                shift( slot );
+                this.size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put every entry of an other map to this one.
+     *
+     * @param other the other map
+     */
+    @SuppressWarnings( "unchecked" )
+    public void putAll( LongObjectMap< ? extends V > other )
+    {
+        for ( int slot = 0; slot < other.values.length; slot++ )
+        {
+            if ( other.values[ slot ] != null )
+            {
+                put( other.keys[ slot ], ( V ) other.values[ slot ] );
+            }
+        }
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( this.values, null );
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of the slots, the upper bound of {@link #keyAt(int)} and {@link #valueAt(int)}.
+     *
+     * @return the slots
+     */
+    public int capacity()
+    {
+        return this.values.length;
+    }
+
+    /**
+     * Get the key of a slot, valid only if {@link #valueAt(int)} isn't null.
+     *
+     * @param slot the slot
+     * @return the key
+     */
+    public long keyAt( int slot )
+    {
+        return this.keys[ slot ];
+    }
+
+    /**
+     * Get the value of a slot.
+     *
+     * @param slot the slot
+     * @return the value, or null if the slot is empty
+     */
+    @SuppressWarnings( "unchecked" )
+    public V valueAt( int slot )
+    {
+        return ( V ) this.values[ slot ];
+    }
+
+    /**
+     * Close the gap of a removed slot by moving back the entries of its run which
+     * would no longer be found, so the map never needs tombstones.
+     */
+    private void shift( int gap )
+    {
+        for ( int slot = ( gap + 1 ) & this.mask; this.values[ slot ] != null; slot = ( slot + 1 ) & this.mask )
+        {
+            int home = hash( this.keys[ slot ] ) & this.mask;
+            if ( ( ( slot - home ) & this.mask ) >= ( ( slot - gap ) & this.mask ) )
+            {
+                this.keys[ gap ] = this.keys[ slot ];
+                this.values[ gap ] = this.values[ slot ];
+                gap = slot;
+            }
+        }
+        this.values[ gap ] = null;
+    }
+
+    private void resize( int capacity )
+    {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        this.keys = new long[ capacity ];
+        this.values = new Object[ capacity ];
+        this.mask = capacity - 1;
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( values[ i ] != null )
+            {
+                int slot = hash( keys[ i ] ) & this.mask;
+                while ( this.values[ slot ] != null )
+                {
+                    slot = ( slot + 1 ) & this.mask;
+                }
+                this.keys[ slot ] = keys[ i ];
+                this.values[ slot ] = values[ i ];
+            }
+        }
+    }
+}
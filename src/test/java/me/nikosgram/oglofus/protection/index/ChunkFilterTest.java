@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkFilterTest
+{
+    private static long randomChunk( Random random )
+    {
+        return RegionIndex.chunkKey( random.nextInt( 1 << 20 ) - ( 1 << 19 ), random.nextInt( 1 << 20 ) - ( 1 << 19 ) );
+    }
+
+    @Test
+    public void noFalseNegatives()
+    {
+        Random random = new Random( 18 );
+        ChunkFilter filter = new ChunkFilter( 50000 );
+        List< Long > claimed = new ArrayList< Long >();
+        for ( int i = 0; i < 50000; i++ )
+        {
+            long key = randomChunk( random );
+            filter.add( key );
+            claimed.add( key );
+        }
+        for ( long key : claimed )
+        {
+            assertTrue( filter.mayContain( key ) );
+        }
+    }
+
+    @Test
+    public void fewFalsePositives()
+    {
+        Random random = new Random( 19 );
+        ChunkFilter filter = new ChunkFilter( 100000 );
+        Set< Long > claimed = new HashSet< Long >();
+        while ( claimed.size() < 100000 )
+        {
+            long key = randomChunk( random );
+            if ( claimed.add( key ) )
+            {
+                filter.add( key );
+            }
+        }
+        int positives = 0;
+        int checked = 0;
+        while ( checked < 100000 )
+        {
+            long key = randomChunk( random );
+            if ( !claimed.contains( key ) )
+            {
+                checked++;
+                positives += filter.mayContain( key ) ? 1 : 0;
+            }
+        }
+        assertTrue( positives < checked * 3 / 100 );
+    }
+
+    @Test
+    public void fillsWithClaimsAndReleases()
+    {
+        ChunkFilter filter = new ChunkFilter( 0 );
+        int events = 0;
+        while ( !filter.isFull() )
+        {
+            long key = RegionIndex.chunkKey( events, 0 );
+            if ( events % 2 == 0 )
+            {
+                filter.add( key );
+            } else
+            {
+                filter.remove( key );
+            }
+            events++;
+        }
+        // The smallest filter has 65536 bits and takes an eighth of them.
+        assertEquals( ( 1 << 16 ) / 8 + 1, events );
+    }
+
+    /**
+     * A world with 100k claimed chunks, where the old fixed 8 KB bitmap let through most
+     * wilderness lookups, grows its filter and stays accurate.
+     */
+    @Test
+    public void worldIndexGrowsTheFilter()
+    {
+        Random random = new Random( 20 );
+        UUID world = UUID.randomUUID();
+        WorldIndex index = new WorldIndex();
+        Set< Long > claimed = new HashSet< Long >();
+        List< ProtectionRegion > regions = new ArrayList< ProtectionRegion >();
+        while ( claimed.size() < 100000 )
+        {
+            int chunkX = random.nextInt( 1 << 16 ) - ( 1 << 15 );
+            int chunkZ = random.nextInt( 1 << 16 ) - ( 1 << 15 );
+            if ( claimed.add( RegionIndex.chunkKey( chunkX, chunkZ ) ) )
+            {
+                ProtectionRegion region = TestRegions.region( world, chunkX * 16 + 8, 64, chunkZ * 16 + 8, 0 );
+                index.add( region );
+                regions.add( region );
+            }
+        }
+        // Release half of them, the released chunks leave stale bits until a build.
+        for ( int i = 0; i < regions.size(); i += 2 )
+        {
+            ProtectionRegion region = regions.get( i );
+            index.remove( region );
+            claimed.remove(
+                    RegionIndex.chunkKey(
+                            region.getProtectionVector().getBlockLocation().getX() >> 4,
+                            region.getProtectionVector().getBlockLocation().getZ() >> 4
+                    )
+            );
+        }
+        for ( long key : claimed )
+        {
+            assertTrue( index.mayContain( ( int ) ( key >> 32 ), ( int ) key ) );
+        }
+        int positives = 0;
+        int checked = 0;
+        while ( checked < 100000 )
+        {
+            int chunkX = random.nextInt( 1 << 16 ) - ( 1 << 15 );
+            int chunkZ = random.nextInt( 1 << 16 ) - ( 1 << 15 );
+            if ( !claimed.contains( RegionIndex.chunkKey( chunkX, chunkZ ) ) )
+            {
+                checked++;
+                positives += index.mayContain( chunkX, chunkZ ) ? 1 : 0;
+            }
+        }
+        assertTrue( positives < checked * 6 / 100 );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegionIndexTest
+{
+    private static ProtectionRegion random( Random random, UUID world )
+    {
+        return TestRegions.region(
+                world, random.nextInt( 8000 ) - 4000, random.nextInt( 200 ), random.nextInt( 8000 ) - 4000,
+                random.nextInt( 25 )
+        );
+    }
+
+    /**
+     * Fill an index with regions which don't overlap, as the manager would.
+     */
+    private static List< ProtectionRegion > fill( RegionIndex index, Random random, UUID world, int count )
+    {
+        List< ProtectionRegion > regions = new ArrayList< ProtectionRegion >();
+        for ( int i = 0; i < count; i++ )
+        {
+            ProtectionRegion region = random( random, world );
+            if ( !index.intersects( region.getProtectionVector() ) )
+            {
+                index.add( region );
+                regions.add( region );
+            }
+        }
+        return regions;
+    }
+
+    @Test
+    public void intersectsMatchesBruteForce()
+    {
+        Random random = new Random( 21 );
+        UUID world = UUID.randomUUID();
+        RegionIndex index = new RegionIndex();
+        List< ProtectionRegion > regions = fill( index, random, world, 3000 );
+        int overlaps = 0;
+        for ( int i = 0; i < 5000; i++ )
+        {
+            ProtectionRegion claim = random( random, world );
+            boolean expected = false;
+            for ( ProtectionRegion region : regions )
+            {
+                if ( TestRegions.intersects( claim, region ) )
+                {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals( expected, index.intersects( claim.getProtectionVector() ) );
+            overlaps += expected ? 1 : 0;
+        }
+        // Both answers are exercised.
+        assertTrue( overlaps > 0 && overlaps < 5000 );
+        assertFalse( index.intersects( TestRegions.region( UUID.randomUUID(), 0, 0, 0, 5 ).getProtectionVector() ) );
+    }
+
+    @Test
+    public void getRegionMatchesBruteForce()
+    {
+        Random random = new Random( 22 );
+        UUID world = UUID.randomUUID();
+        RegionIndex index = new RegionIndex();
+        List< ProtectionRegion > regions = fill( index, random, world, 3000 );
+        int id = index.worldIndex( world );
+        for ( int i = 0; i < 50000; i++ )
+        {
+            if ( i % 500 == 0 )
+            {
+                index.remove( regions.remove( random.nextInt( regions.size() ) ) );
+            }
+            int x = random.nextInt( 8000 ) - 4000;
+            int y = random.nextInt( 200 );
+            int z = random.nextInt( 8000 ) - 4000;
+            if ( i % 2 == 0 )
+            {
+                // Near a region, so most of these blocks are claimed.
+                ProtectionRegion near = regions.get( random.nextInt( regions.size() ) );
+                x = near.getProtectionVector().getBlockLocation().getX() + random.nextInt( 51 ) - 25;
+                y = near.getProtectionVector().getBlockLocation().getY() + random.nextInt( 51 ) - 25;
+                z = near.getProtectionVector().getBlockLocation().getZ() + random.nextInt( 51 ) - 25;
+            }
+            ProtectionRegion expected = null;
+            for ( ProtectionRegion region : regions )
+            {
+                if ( TestRegions.contains( region, x, y, z ) )
+                {
+                    expected = region;
+                    break;
+                }
+            }
+            assertEquals( expected, index.getRegion( id, x, y, z ) );
+        }
+    }
+
+    @Test
+    public void removedRegionIsGone()
+    {
+        UUID world = UUID.randomUUID();
+        RegionIndex index = new RegionIndex();
+        ProtectionRegion region = TestRegions.region( world, 100, 64, -100, 10 );
+        index.add( region );
+        int id = index.worldIndex( world );
+        assertEquals( region, index.getRegion( id, 110, 54, -90 ) );
+        assertNull( index.getRegion( id, 111, 64, -100 ) );
+        index.remove( region );
+        assertNull( index.getRegion( id, 100, 64, -100 ) );
+        assertFalse( index.intersects( region.getProtectionVector() ) );
+    }
+}
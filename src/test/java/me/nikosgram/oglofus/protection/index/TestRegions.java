@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.index;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionLocation;
+import me.nikosgram.oglofus.protection.api.region.ProtectionRegion;
+import me.nikosgram.oglofus.protection.api.region.ProtectionVector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+/**
+ * Regions for the index tests. They answer only what the index asks, so they're
+ * proxies of the API's interfaces instead of implementations of all of it.
+ */
+final class TestRegions
+{
+    private TestRegions()
+    {
+    }
+
+    /**
+     * Create a region, a cube of the radius around the block.
+     */
+    static ProtectionRegion region( UUID world, int x, int y, int z, int radius )
+    {
+        final ProtectionVector vector = proxy(
+                ProtectionVector.class,
+                "getBlockLocation", location( world, x, y, z ),
+                "getMinLocation", location( world, x - radius, y - radius, z - radius ),
+                "getMaxLocation", location( world, x + radius, y + radius, z + radius ),
+                "getRadius", radius
+        );
+        return proxy( ProtectionRegion.class, "getUuid", UUID.randomUUID(), "getProtectionVector", vector );
+    }
+
+    static ProtectionLocation location( UUID world, int x, int y, int z )
+    {
+        return proxy( ProtectionLocation.class, "getWorld", world, "getX", x, "getY", y, "getZ", z );
+    }
+
+    /**
+     * Check if the region's cube contains the block, the slow way.
+     */
+    static boolean contains( ProtectionRegion region, int x, int y, int z )
+    {
+        ProtectionLocation min = region.getProtectionVector().getMinLocation();
+        ProtectionLocation max = region.getProtectionVector().getMaxLocation();
+        return x >= min.getX() && x <= max.getX() && y >= min.getY() && y <= max.getY() &&
+                z >= min.getZ() && z <= max.getZ();
+    }
+
+    /**
+     * Check if the regions' cubes intersect, the slow way.
+     */
+    static boolean intersects( ProtectionRegion first, ProtectionRegion second )
+    {
+        ProtectionLocation min = first.getProtectionVector().getMinLocation();
+        ProtectionLocation max = first.getProtectionVector().getMaxLocation();
+        ProtectionLocation otherMin = second.getProtectionVector().getMinLocation();
+        ProtectionLocation otherMax = second.getProtectionVector().getMaxLocation();
+        return min.getX() <= otherMax.getX() && max.getX() >= otherMin.getX() &&
+                min.getY() <= otherMax.getY() && max.getY() >= otherMin.getY() &&
+                min.getZ() <= otherMax.getZ() && max.getZ() >= otherMin.getZ();
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static < T > T proxy( final Class< T > type, final Object... answers )
+    {
+        return ( T ) Proxy.newProxyInstance(
+                TestRegions.class.getClassLoader(), new Class< ? >[]{ type }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke( Object proxy, Method method, Object[] arguments )
+                    {
+                        String name = method.getName();
+                        if ( name.equals( "equals" ) )
+                        {
+                            return proxy == arguments[ 0 ];
+                        }
+                        if ( name.equals( "hashCode" ) )
+                        {
+                            return System.identityHashCode( proxy );
+                        }
+                        if ( name.equals( "toString" ) )
+                        {
+                            return "Test" + type.getSimpleName();
+                        }
+                        for ( int i = 0; i < answers.length; i += 2 )
+                        {
+                            if ( answers[ i ].equals( name ) )
+                            {
+                                return answers[ i + 1 ];
+                            }
+                        }
+                        throw new UnsupportedOperationException( name );
+                    }
+                }
+        );
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournalRegionStorageTest
+{
+    @Rule
+    public final TemporaryFolder temporary = new TemporaryFolder();
+
+    private static Map< UUID, String > describe( Collection< RegionRecord > records )
+    {
+        Map< UUID, String > described = new TreeMap< UUID, String >();
+        for ( RegionRecord record : records )
+        {
+            described.put(
+                    record.getUuid(),
+                    record.getName() + " " + record.getOwner() + " " + record.getWorld() + " " + record.getX() + " " +
+                            record.getY() + " " + record.getZ() + " " + record.getRadius() + " " +
+                            new TreeMap< UUID, ProtectionRank >( record.getStaff() )
+            );
+        }
+        return described;
+    }
+
+    /**
+     * Create regions and change them with every kind of change.
+     */
+    private static void fill( JournalRegionStorage storage )
+    {
+        UUID world = UUID.randomUUID();
+        List< UUID > regions = new ArrayList< UUID >();
+        for ( int i = 0; i < 50; i++ )
+        {
+            RegionRecord record = new RegionRecord(
+                    UUID.randomUUID(), i % 7 == 0 ? null : "region " + i, UUID.randomUUID(), world, i * 30, 64, -i, 10
+            );
+            record.getStaff().put( record.getOwner(), ProtectionRank.Owner );
+            storage.create( record );
+            regions.add( record.getUuid() );
+        }
+        for ( int i = 0; i < 200; i++ )
+        {
+            UUID region = regions.get( i % regions.size() );
+            storage.rename( region, "renamed " + i );
+            storage.setRank( region, new UUID( 0L, i % 5 ), i % 2 == 0 ? ProtectionRank.Member : ProtectionRank.Officer );
+        }
+        storage.removeStaff( regions.get( 3 ), new UUID( 0L, 3L ) );
+        for ( int i = 0; i < 5; i++ )
+        {
+            storage.delete( regions.get( i ) );
+        }
+        storage.flush();
+    }
+
+    private static File lastLog( File folder )
+    {
+        File last = null;
+        long generation = -1L;
+        for ( File file : folder.listFiles() )
+        {
+            String name = file.getName();
+            if ( name.startsWith( "log-" ) && name.endsWith( ".wal" ) &&
+                    Long.parseLong( name.substring( 4, name.length() - 4 ) ) > generation )
+            {
+                generation = Long.parseLong( name.substring( 4, name.length() - 4 ) );
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    @Test
+    public void replaysTheLogs() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        // The first storage is never closed, like a server which crashed.
+        JournalRegionStorage crashed = new JournalRegionStorage( folder, 5L, 3600L );
+        fill( crashed );
+        Map< UUID, String > expected = describe( crashed.load() );
+        assertEquals( 45, expected.size() );
+
+        JournalRegionStorage storage = new JournalRegionStorage( folder, 5L, 3600L );
+        assertEquals( expected, describe( storage.load() ) );
+        storage.close();
+    }
+
+    @Test
+    public void closeWritesASnapshot() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        JournalRegionStorage storage = new JournalRegionStorage( folder, 5L, 3600L );
+        fill( storage );
+        Map< UUID, String > expected = describe( storage.load() );
+        storage.close();
+        assertTrue( new File( folder, "snapshot.dat" ).isFile() );
+
+        storage = new JournalRegionStorage( folder, 5L, 3600L );
+        assertEquals( expected, describe( storage.load() ) );
+        storage.close();
+    }
+
+    @Test
+    public void cutsOffATornTail() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        JournalRegionStorage crashed = new JournalRegionStorage( folder, 5L, 3600L );
+        fill( crashed );
+        Map< UUID, String > expected = describe( crashed.load() );
+
+        // A change whose length says 40 bytes, of which only 3 reached the disk.
+        File log = lastLog( folder );
+        long length = log.length();
+        FileOutputStream out = new FileOutputStream( log, true );
+        try
+        {
+            out.write( new byte[]{ 0, 0, 0, 40, 1, 2, 3 } );
+        } finally
+        {
+            out.close();
+        }
+
+        JournalRegionStorage storage = new JournalRegionStorage( folder, 5L, 3600L );
+        assertEquals( expected, describe( storage.load() ) );
+        assertEquals( length, log.length() );
+        storage.close();
+    }
+
+    @Test
+    public void readsAnUnmovedSnapshot() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        JournalRegionStorage storage = new JournalRegionStorage( folder, 5L, 3600L );
+        fill( storage );
+        Map< UUID, String > expected = describe( storage.load() );
+        storage.close();
+        assertTrue( new File( folder, "snapshot.dat" ).renameTo( new File( folder, "snapshot.tmp" ) ) );
+
+        storage = new JournalRegionStorage( folder, 5L, 3600L );
+        assertEquals( expected, describe( storage.load() ) );
+        assertTrue( new File( folder, "snapshot.dat" ).isFile() );
+        assertFalse( new File( folder, "snapshot.tmp" ).exists() );
+        storage.close();
+    }
+
+    @Test
+    public void ignoresATornSnapshot() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        JournalRegionStorage crashed = new JournalRegionStorage( folder, 5L, 3600L );
+        fill( crashed );
+        Map< UUID, String > expected = describe( crashed.load() );
+        FileOutputStream out = new FileOutputStream( new File( folder, "snapshot.tmp" ) );
+        try
+        {
+            out.write( new byte[]{ 0x4F, 0x47, 0x4A, 0x4C, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 50, 1 } );
+        } finally
+        {
+            out.close();
+        }
+
+        JournalRegionStorage storage = new JournalRegionStorage( folder, 5L, 3600L );
+        assertEquals( expected, describe( storage.load() ) );
+        storage.close();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void rejectsChangesAfterClose() throws IOException
+    {
+        JournalRegionStorage storage = new JournalRegionStorage( this.temporary.newFolder(), 5L, 3600L );
+        storage.close();
+        storage.create( new RegionRecord( UUID.randomUUID(), "late", UUID.randomUUID(), UUID.randomUUID(), 0, 0, 0, 1 ) );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.protection.storage;
+
+import me.nikosgram.oglofus.protection.api.region.ProtectionRank;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedRegionStorageTest
+{
+    @Rule
+    public final TemporaryFolder temporary = new TemporaryFolder();
+
+    private static Map< UUID, String > describe( Collection< RegionRecord > records )
+    {
+        Map< UUID, String > described = new TreeMap< UUID, String >();
+        for ( RegionRecord record : records )
+        {
+            described.put(
+                    record.getUuid(),
+                    record.getName() + " " + record.getOwner() + " " + record.getWorld() + " " + record.getX() + " " +
+                            record.getY() + " " + record.getZ() + " " + record.getRadius() + " " +
+                            new TreeMap< UUID, ProtectionRank >( record.getStaff() )
+            );
+        }
+        return described;
+    }
+
+    private static List< UUID > create( MappedRegionStorage storage, int count )
+    {
+        UUID world = UUID.randomUUID();
+        List< UUID > regions = new ArrayList< UUID >();
+        for ( int i = 0; i < count; i++ )
+        {
+            RegionRecord record = new RegionRecord(
+                    UUID.randomUUID(), i % 7 == 0 ? null : "region " + i, UUID.randomUUID(), world, i * 30, 64, -i, 10
+            );
+            record.getStaff().put( record.getOwner(), ProtectionRank.Owner );
+            storage.create( record );
+            regions.add( record.getUuid() );
+        }
+        return regions;
+    }
+
+    @Test
+    public void keepsEveryChange() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        MappedRegionStorage storage = new MappedRegionStorage( folder );
+        // Enough records to grow both files past their first mapping.
+        List< UUID > regions = create( storage, 3000 );
+        for ( int i = 0; i < 6000; i++ )
+        {
+            UUID region = regions.get( i % regions.size() );
+            storage.rename( region, "renamed " + i );
+            storage.setRank( region, new UUID( 0L, i % 5 ), i % 2 == 0 ? ProtectionRank.Member : ProtectionRank.Officer );
+        }
+        storage.removeStaff( regions.get( 3 ), new UUID( 0L, 3L ) );
+        for ( int i = 0; i < 100; i++ )
+        {
+            storage.delete( regions.get( i ) );
+        }
+        storage.flush();
+        Map< UUID, String > expected = describe( storage.load() );
+        assertEquals( 2900, expected.size() );
+        storage.close();
+
+        storage = new MappedRegionStorage( folder );
+        assertEquals( expected, describe( storage.load() ) );
+        storage.close();
+    }
+
+    @Test
+    public void reusesReleasedSlots() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        MappedRegionStorage storage = new MappedRegionStorage( folder );
+        List< UUID > regions = create( storage, 200 );
+        storage.close();
+        long length = new File( folder, "regions.dat" ).length();
+
+        storage = new MappedRegionStorage( folder );
+        storage.load();
+        for ( UUID region : regions.subList( 0, 100 ) )
+        {
+            storage.delete( region );
+        }
+        create( storage, 100 );
+        Map< UUID, String > expected = describe( storage.load() );
+        assertEquals( 200, expected.size() );
+        storage.close();
+        assertEquals( length, new File( folder, "regions.dat" ).length() );
+
+        storage = new MappedRegionStorage( folder );
+        assertEquals( expected, describe( storage.load() ) );
+        storage.close();
+    }
+
+    @Test
+    public void cutsLongNames() throws IOException
+    {
+        File folder = this.temporary.newFolder();
+        MappedRegionStorage storage = new MappedRegionStorage( folder );
+        StringBuilder name = new StringBuilder();
+        for ( int i = 0; i < MappedRegionStorage.NAME + 10; i++ )
+        {
+            name.append( ( char ) ( 'a' + i % 26 ) );
+        }
+        storage.create(
+                new RegionRecord( UUID.randomUUID(), name.toString(), UUID.randomUUID(), UUID.randomUUID(), 0, 0, 0, 1 )
+        );
+        storage.close();
+
+        storage = new MappedRegionStorage( folder );
+        assertEquals(
+                name.substring( 0, MappedRegionStorage.NAME ), storage.load().iterator().next().getName()
+        );
+        storage.close();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CuboidCollectionTest
+{
+    private static CuboidCollection< String > cube( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+    {
+        return new CuboidCollection< String >( minX, minY, minZ, maxX, maxY, maxZ )
+        {
+            @Override
+            protected String create( int x, int y, int z )
+            {
+                return x + "," + y + "," + z;
+            }
+        };
+    }
+
+    @Test
+    public void walksXThenYThenZ()
+    {
+        List< String > expected = new ArrayList< String >();
+        for ( int x = -2; x <= 1; x++ )
+        {
+            for ( int y = 3; y <= 4; y++ )
+            {
+                for ( int z = 5; z <= 7; z++ )
+                {
+                    expected.add( x + "," + y + "," + z );
+                }
+            }
+        }
+        CuboidCollection< String > cube = cube( -2, 3, 5, 1, 4, 7 );
+        assertEquals( 24, cube.size() );
+        assertEquals( expected, new ArrayList< String >( cube ) );
+
+        final List< String > visited = new ArrayList< String >();
+        assertTrue(
+                CuboidCollection.visit(
+                        -2, 3, 5, 1, 4, 7, new BlockVisitor()
+                        {
+                            @Override
+                            public boolean visit( int x, int y, int z )
+                            {
+                                visited.add( x + "," + y + "," + z );
+                                return true;
+                            }
+                        }
+                )
+        );
+        assertEquals( expected, visited );
+    }
+
+    @Test
+    public void visitorStops()
+    {
+        final int[] visits = new int[ 1 ];
+        assertFalse(
+                CuboidCollection.visit(
+                        0, 0, 0, 9, 9, 9, new BlockVisitor()
+                        {
+                            @Override
+                            public boolean visit( int x, int y, int z )
+                            {
+                                return ++visits[ 0 ] < 5;
+                            }
+                        }
+                )
+        );
+        assertEquals( 5, visits[ 0 ] );
+    }
+
+    @Test
+    public void singleBlockAndEmpty()
+    {
+        assertEquals( 1, cube( 4, 4, 4, 4, 4, 4 ).size() );
+        assertEquals( "4,4,4", cube( 4, 4, 4, 4, 4, 4 ).iterator().next() );
+
+        CuboidCollection< String > empty = cube( 1, 1, 1, 0, 1, 1 );
+        assertEquals( 0, empty.size() );
+        assertTrue( empty.isEmpty() );
+        assertFalse( empty.iterator().hasNext() );
+        assertEquals( 0, cube( 0, 1, 0, 0, 0, 0 ).size() );
+        assertEquals( 0, cube( 0, 0, 1, 0, 0, 0 ).size() );
+    }
+
+    @Test( expected = NoSuchElementException.class )
+    public void exhaustedIterator()
+    {
+        Iterator< String > iterator = cube( 0, 0, 0, 0, 0, 1 ).iterator();
+        iterator.next();
+        iterator.next();
+        iterator.next();
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void readOnly()
+    {
+        cube( 0, 0, 0, 1, 1, 1 ).add( "0,0,0" );
+    }
+}
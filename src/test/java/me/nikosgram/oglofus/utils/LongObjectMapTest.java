@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2015 Nikos Grammatikos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://raw.githubusercontent.com/nikosgram13/OglofusProtection/master/LICENSE
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.nikosgram.oglofus.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongObjectMapTest
+{
+    /**
+     * The map's hash, to pick keys which collide on a slot.
+     */
+    private static int slot( long key, int mask )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return ( int ) ( hash ^ ( hash >>> 32 ) ) & mask;
+    }
+
+    private static List< Long > keysOf( int slot, int mask, int count )
+    {
+        List< Long > keys = new ArrayList< Long >();
+        for ( long key = 0; keys.size() < count; key++ )
+        {
+            if ( slot( key, mask ) == slot )
+            {
+                keys.add( key );
+            }
+        }
+        return keys;
+    }
+
+    private static < V > void assertMatches( Map< Long, V > expected, LongObjectMap< V > map )
+    {
+        assertEquals( expected.size(), map.size() );
+        int walked = 0;
+        for ( int slot = 0; slot < map.capacity(); slot++ )
+        {
+            if ( map.valueAt( slot ) != null )
+            {
+                walked++;
+                assertEquals( expected.get( map.keyAt( slot ) ), map.valueAt( slot ) );
+            }
+        }
+        assertEquals( expected.size(), walked );
+        for ( Map.Entry< Long, V > entry : expected.entrySet() )
+        {
+            assertEquals( entry.getValue(), map.get( entry.getKey() ) );
+        }
+    }
+
+    @Test
+    public void matchesHashMap()
+    {
+        Random random = new Random( 16 );
+        LongObjectMap< Integer > map = new LongObjectMap< Integer >();
+        Map< Long, Integer > expected = new HashMap< Long, Integer >();
+        for ( int i = 0; i < 500000; i++ )
+        {
+            // Few keys, so the same ones are put and removed over and over; some far apart.
+            long key = random.nextInt( 2000 ) * ( random.nextBoolean() ? 1L : 0x100000001L );
+            switch ( random.nextInt( 3 ) )
+            {
+                case 0:
+                    assertEquals( expected.put( key, i ), map.put( key, i ) );
+                    break;
+                case 1:
+                    assertEquals( expected.remove( key ), map.remove( key ) );
+                    break;
+                default:
+                    assertEquals( expected.get( key ), map.get( key ) );
+            }
+            assertEquals( expected.size(), map.size() );
+        }
+        assertMatches( expected, map );
+    }
+
+    @Test
+    public void collidingKeys()
+    {
+        // 8 entries fit 16 slots without growing.
+        LongObjectMap< String > map = new LongObjectMap< String >( 8 );
+        Map< Long, String > expected = new HashMap< Long, String >();
+        List< Long > keys = keysOf( 3, 15, 6 );
+        for ( Long key : keys )
+        {
+            map.put( key, "v" + key );
+            expected.put( key, "v" + key );
+        }
+        assertEquals( 16, map.capacity() );
+        assertMatches( expected, map );
+        for ( int i = 0; i < keys.size(); i += 2 )
+        {
+            assertEquals( expected.remove( keys.get( i ) ), map.remove( keys.get( i ) ) );
+            assertMatches( expected, map );
+        }
+        assertNull( map.remove( keys.get( 0 ) ) );
+    }
+
+    @Test
+    public void wrapsAroundTheEnd()
+    {
+        LongObjectMap< String > map = new LongObjectMap< String >( 8 );
+        Map< Long, String > expected = new HashMap< Long, String >();
+        // Five keys whose slot is the last one fill it and the first four.
+        List< Long > last = keysOf( 15, 15, 5 );
+        // A key of slot 1 lands after them, past its own slot.
+        List< Long > first = keysOf( 1, 15, 1 );
+        for ( Long key : last )
+        {
+            map.put( key, "l" + key );
+            expected.put( key, "l" + key );
+        }
+        map.put( first.get( 0 ), "f" );
+        expected.put( first.get( 0 ), "f" );
+        assertEquals( 16, map.capacity() );
+        assertMatches( expected, map );
+        // Removing at the end of the table shifts the wrapped entries back over it.
+        for ( Long key : last )
+        {
+            assertEquals( expected.remove( key ), map.remove( key ) );
+            assertMatches( expected, map );
+        }
+        assertEquals( "f", map.get( first.get( 0 ) ) );
+    }
+
+    @Test
+    public void growsAndClears()
+    {
+        LongObjectMap< Long > map = new LongObjectMap< Long >();
+        Map< Long, Long > expected = new HashMap< Long, Long >();
+        for ( long key = -5000; key < 5000; key += 3 )
+        {
+            map.put( key, key );
+            expected.put( key, key );
+        }
+        assertMatches( expected, map );
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertNull( map.get( 3L ) );
+    }
+}